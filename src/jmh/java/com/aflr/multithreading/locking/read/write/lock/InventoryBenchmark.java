@@ -0,0 +1,159 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH version of the "Reading took %d ms" measurement of the lock examples, for every InventoryDatabase. The JMH
+ * threads are the readers and each of them runs range queries; the writers are background threads started for the
+ * whole trial that add & remove an item and then pause, like the writer of the examples.
+ *
+ * Reported per implementation, both in microseconds: reader throughput (ops/us) and the reader latency distribution
+ * (SampleTime mode gives p50/p90/p99/p99.9...). Parameters:
+ * - implementation: which InventoryDatabase is measured
+ * - writers / writerPauseMicros: number of writer threads and pause between two writes (0 = write back to back)
+ * - rangeWidth: number of prices covered by every query
+ * - datasetSize: number of items added before the measurement starts
+ * The number of readers is the JMH thread count, which a @Param can't sweep: main runs the benchmark once per value of
+ * READER_THREADS. With java -jar target/benchmarks.jar, JMH runs a single reader unless given -t (see the README).
+ * Every parameter takes all its values, so narrow them down with -p, e.g. -p implementation=STAMPED_LOCK,SHARDED.
+ *
+ * Run with: mvn -Pjmh package && java -cp target/benchmarks.jar com.aflr.multithreading.locking.read.write.lock.InventoryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryBenchmark {
+    static final int HIGHEST_PRICE = 1000;
+    static final int[] READER_THREADS = {1, 2, 4, 7};
+
+    @Param({"REENTRANT_LOCK", "REENTRANT_READ_WRITE_LOCK", "FENWICK_TREE", "STAMPED_LOCK", "COPY_ON_WRITE_SNAPSHOT",
+            "SHARDED", "MEMORY_MAPPED", "SKIP_LIST"})
+    Implementation implementation;
+
+    @Param({"1", "4"})
+    int writers;
+
+    @Param({"0", "10000"})
+    long writerPauseMicros;
+
+    @Param({"10", "500", "1000"})
+    int rangeWidth;
+
+    @Param({"1000", "100000"})
+    int datasetSize;
+
+    private Inventory inventoryDatabase;
+    private List<Thread> writerThreads;
+    private volatile boolean running;
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        for (int readers : READER_THREADS) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(new CommandLineOptions(args))
+                    .include(InventoryBenchmark.class.getSimpleName())
+                    .threads(readers);
+            new Runner(options.build()).run();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        inventoryDatabase = implementation.newInventory();
+
+        Random random = new Random(42);
+        int[] initialPrices = new int[datasetSize];
+        for (int i = 0; i < initialPrices.length; i++) {
+            initialPrices[i] = random.nextInt(HIGHEST_PRICE);
+        }
+        inventoryDatabase.addItems(initialPrices);
+
+        running = true;
+        writerThreads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+                int[] prices = new int[2];
+                int[] deltas = {1, -1};
+                while (running) {
+                    prices[0] = threadRandom.nextInt(HIGHEST_PRICE);
+                    prices[1] = threadRandom.nextInt(HIGHEST_PRICE);
+                    inventoryDatabase.applyDeltas(prices, deltas);
+                    if (writerPauseMicros > 0) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(writerPauseMicros));
+                    }
+                }
+            }, "inventory-writer-" + i);
+            writer.setDaemon(true);
+            writerThreads.add(writer);
+            writer.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        for (Thread writer : writerThreads) {
+            writer.join();
+        }
+        //MEMORY_MAPPED opens a new file every trial
+        if (inventoryDatabase instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    public int rangeQuery() {
+        int lowerBoundPrice = ThreadLocalRandom.current().nextInt(HIGHEST_PRICE - rangeWidth + 1);
+        return inventoryDatabase.getNumberOfItemsInPriceRange(lowerBoundPrice, lowerBoundPrice + rangeWidth - 1);
+    }
+
+    public enum Implementation {
+        REENTRANT_LOCK(ReentrantLockExample.InventoryDatabase::new),
+        REENTRANT_READ_WRITE_LOCK(ReentrantReadWriteLockExample.InventoryDatabase::new),
+        FENWICK_TREE(() -> new FenwickTreeExample.InventoryDatabase(HIGHEST_PRICE)),
+        STAMPED_LOCK(() -> new StampedLockExample.InventoryDatabase(HIGHEST_PRICE)),
+        COPY_ON_WRITE_SNAPSHOT(() -> new CopyOnWriteSnapshotExample.InventoryDatabase(HIGHEST_PRICE)),
+        SHARDED(() -> new ShardedInventoryExample.InventoryDatabase(HIGHEST_PRICE, ShardedInventoryExample.NUMBER_OF_SHARDS)),
+        MEMORY_MAPPED(() -> MappedInventoryExample.InventoryDatabase.temporary(HIGHEST_PRICE)),
+        SKIP_LIST(SkipListInventoryExample.InventoryDatabase::new);
+
+        private final Supplier<Inventory> factory;
+
+        Implementation(Supplier<Inventory> factory) {
+            this.factory = factory;
+        }
+
+        Inventory newInventory() {
+            return factory.get();
+        }
+    }
+}
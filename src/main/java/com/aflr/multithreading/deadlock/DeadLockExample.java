@@ -1,6 +1,8 @@
 package com.aflr.multithreading.deadlock;
 
 import java.util.Random;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class simulate a deadlock scenario where there are two roads: A and B Two train want to take a road. Once a
@@ -9,6 +11,9 @@ import java.util.Random;
  * take roadA that was taken by trainA: a deadlock
  *
  * The solution will be to acquire the lock in the same order everywhere in the code.
+ *
+ * ReentrantLockIntersection applies it with ReentrantLocks, which, unlike the monitors of Intersection, don't pin a
+ * virtual thread to its carrier while the train sleeps on the road.
  */
 public class DeadLockExample {
 
@@ -67,7 +72,7 @@ public class DeadLockExample {
     }
 
 
-    static class Intersection {
+    public static class Intersection {
 
         private Object roadA = new Object();
         private Object roadB = new Object();
@@ -100,4 +105,39 @@ public class DeadLockExample {
             }
         }
     }
+
+    /**
+     * Both roads are always locked in the same order (road A, then road B), so trains can't deadlock
+     */
+    public static class ReentrantLockIntersection {
+
+        private final Lock roadA = new ReentrantLock();
+        private final Lock roadB = new ReentrantLock();
+
+        public void takeRoadA() {
+            pass("A");
+        }
+
+        public void takeRoadB() {
+            pass("B");
+        }
+
+        private void pass(String road) {
+            roadA.lock();
+            try {
+                roadB.lock();
+                try {
+                    System.out.println("Road " + road + " is locked by " + Thread.currentThread().getName());
+                    System.out.println("Train is passing through road " + road);
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    roadB.unlock();
+                }
+            } finally {
+                roadA.unlock();
+            }
+        }
+    }
 }
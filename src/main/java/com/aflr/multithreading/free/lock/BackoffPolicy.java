@@ -0,0 +1,129 @@
+package com.aflr.multithreading.free.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a lock-free operation does after its CAS fails and before it tries again. The right choice depends on the
+ * number of cores and threads:
+ * - none: retry immediately. Best when there are few threads and the CAS rarely fails
+ * - spin: one Thread.onSpinWait() (a PAUSE instruction on x86) per failure. Cheap, keeps the thread on its core
+ * - exponential: spin 2, 4, 8... times (with some jitter so that colliding threads don't retry in lockstep) up to
+ *   maxSpins, then Thread.yield() to let other threads run. Good when there are more threads than cores
+ * - park: LockSupport.parkNanos. Even parkNanos(1) is a real sleep: on Linux it usually lasts ~50 us because of the
+ *   timer slack, which is far longer than a CAS retry
+ *
+ * Every instance counts the retries (failed CASes) and the operations that needed at least one retry, so the policy
+ * can be tuned with numbers. Use one instance per data structure to get separate counters.
+ */
+public abstract class BackoffPolicy {
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder contendedOperations = new LongAdder();
+
+    public static BackoffPolicy none() {
+        return new BackoffPolicy() {
+            @Override
+            protected void backoff(int attempt) {
+            }
+
+            @Override
+            public String getName() {
+                return "none";
+            }
+        };
+    }
+
+    public static BackoffPolicy spin() {
+        return new BackoffPolicy() {
+            @Override
+            protected void backoff(int attempt) {
+                Thread.onSpinWait();
+            }
+
+            @Override
+            public String getName() {
+                return "spin";
+            }
+        };
+    }
+
+    /**
+     * @param maxSpins once 2^attempt reaches this number of spins, the thread yields instead of spinning
+     */
+    public static BackoffPolicy exponential(int maxSpins) {
+        if (maxSpins < 1) {
+            throw new IllegalArgumentException("maxSpins must be positive: " + maxSpins);
+        }
+        return new BackoffPolicy() {
+            @Override
+            protected void backoff(int attempt) {
+                int spins = attempt >= 30 ? Integer.MAX_VALUE : 1 << attempt;
+                if (spins > maxSpins) {
+                    Thread.yield();
+                    return;
+                }
+                //random number of spins between spins / 2 and spins
+                spins = ThreadLocalRandom.current().nextInt(spins / 2, spins + 1);
+                for (int i = 0; i < spins; i++) {
+                    Thread.onSpinWait();
+                }
+            }
+
+            @Override
+            public String getName() {
+                return "exponential(" + maxSpins + ")";
+            }
+        };
+    }
+
+    public static BackoffPolicy park(long nanos) {
+        return new BackoffPolicy() {
+            @Override
+            protected void backoff(int attempt) {
+                LockSupport.parkNanos(nanos);
+            }
+
+            @Override
+            public String getName() {
+                return "park(" + nanos + "ns)";
+            }
+        };
+    }
+
+    /**
+     * Must be called after every failed CAS of an operation, before retrying
+     *
+     * @param attempt number of consecutive failures of the current operation, starting at 1
+     */
+    public final void onCasFailure(int attempt) {
+        retries.increment();
+        if (attempt == 1) {
+            contendedOperations.increment();
+        }
+        backoff(attempt);
+    }
+
+    protected abstract void backoff(int attempt);
+
+    public abstract String getName();
+
+    /**
+     * Number of failed CASes
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Number of operations whose first CAS failed
+     */
+    public long getContendedOperations() {
+        return contendedOperations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: retries=%,d contendedOperations=%,d", getName(), getRetries(), getContendedOperations());
+    }
+}
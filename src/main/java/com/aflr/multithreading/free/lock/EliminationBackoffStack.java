@@ -0,0 +1,239 @@
+package com.aflr.multithreading.free.lock;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free stack with elimination backoff (Hendler, Shavit and Yerushalmi). Like the LockFreeStack, every push and pop
+ * first tries a single CAS on head. When that CAS fails, instead of sleeping, the thread goes to a random slot of an
+ * elimination array and waits there for a short time: if a push and a pop meet in the same slot, the pop takes the
+ * value of the push directly and neither of them touches head. A push followed by a pop leaves the stack as it was, so
+ * this is still a correct (linearizable) stack.
+ *
+ * The more threads there are, the more collisions on head, but also the more pairs that can cancel each other in the
+ * elimination array, so throughput keeps growing with the number of threads instead of flattening.
+ *
+ * If the elimination fails too, the BackoffPolicy (none by default, since the elimination wait already is a backoff)
+ * runs before going back to head.
+ *
+ * pushAll and popN move several values with one CAS on head, like in the LockFreeStack. A batch can't be cancelled by
+ * a single operation, so they skip the elimination array and just back off when the CAS fails.
+ */
+public class EliminationBackoffStack<T> implements AtomicReferenceExample.Stack<T> {
+    //How many times a thread checks its slot before giving up and going back to head
+    private static final int ELIMINATION_SPINS = 128;
+
+    private final AtomicReference<Node<T>> head = new AtomicReference<>();
+    private final AtomicReferenceArray<Offer<T>> eliminationArray;
+    private final LongAdder counter = new LongAdder();
+    private final BackoffPolicy backoffPolicy;
+
+    public EliminationBackoffStack() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), BackoffPolicy.none());
+    }
+
+    /**
+     * @param eliminationArraySize number of slots where pushes and pops can meet. About half the number of threads
+     *                             hitting the stack concurrently works well
+     * @param backoffPolicy        what to do when both the CAS on head and the elimination fail
+     */
+    public EliminationBackoffStack(int eliminationArraySize, BackoffPolicy backoffPolicy) {
+        if (eliminationArraySize < 1) {
+            throw new IllegalArgumentException("eliminationArraySize must be positive: " + eliminationArraySize);
+        }
+        this.eliminationArray = new AtomicReferenceArray<>(eliminationArraySize);
+        this.backoffPolicy = backoffPolicy;
+    }
+
+    public void push(T value) {
+        Node<T> newHeadNode = new Node<>(value);
+        Offer<T> offer = null;
+
+        int attempt = 0;
+        while (true) {
+            Node<T> currentHeadNode = head.get();
+            newHeadNode.next = currentHeadNode;
+            if (head.compareAndSet(currentHeadNode, newHeadNode)) {
+                break;
+            }
+
+            if (offer == null) {
+                offer = new Offer<>(true, value);
+            }
+            if (eliminate(offer) != null) {
+                break;
+            }
+            backoffPolicy.onCasFailure(++attempt);
+        }
+        counter.increment();
+    }
+
+    public T pop() {
+        Offer<T> offer = null;
+
+        int attempt = 0;
+        while (true) {
+            Node<T> currentHeadNode = head.get();
+            if (currentHeadNode == null) {
+                counter.increment();
+                return null;
+            }
+            if (head.compareAndSet(currentHeadNode, currentHeadNode.next)) {
+                counter.increment();
+                return currentHeadNode.value;
+            }
+
+            if (offer == null) {
+                offer = new Offer<>(false, null);
+            }
+            Offer<T> partner = eliminate(offer);
+            if (partner != null) {
+                counter.increment();
+                return partner.value;
+            }
+            backoffPolicy.onCasFailure(++attempt);
+        }
+    }
+
+    public void pushAll(Collection<T> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Node<T> bottomNode = null;
+        Node<T> topNode = null;
+        for (T value : values) {
+            Node<T> node = new Node<>(value);
+            node.next = topNode;
+            topNode = node;
+            if (bottomNode == null) {
+                bottomNode = node;
+            }
+        }
+
+        int attempt = 0;
+        while (true) {
+            Node<T> currentHeadNode = head.get();
+            bottomNode.next = currentHeadNode;
+            if (head.compareAndSet(currentHeadNode, topNode)) {
+                break;
+            }
+            backoffPolicy.onCasFailure(++attempt);
+        }
+        counter.add(values.size());
+    }
+
+    public int popN(int n, Consumer<T> consumer) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: " + n);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        Node<T> currentHeadNode;
+        Node<T> lastNode;
+        int popped;
+
+        int attempt = 0;
+        while (true) {
+            currentHeadNode = head.get();
+            if (currentHeadNode == null) {
+                counter.increment();
+                return 0;
+            }
+            lastNode = currentHeadNode;
+            popped = 1;
+            while (popped < n && lastNode.next != null) {
+                lastNode = lastNode.next;
+                popped++;
+            }
+            if (head.compareAndSet(currentHeadNode, lastNode.next)) {
+                break;
+            }
+            backoffPolicy.onCasFailure(++attempt);
+        }
+        counter.add(popped);
+
+        for (Node<T> node = currentHeadNode; node != lastNode.next; node = node.next) {
+            consumer.accept(node.value);
+        }
+        return popped;
+    }
+
+    public long getCounter() {
+        return counter.sum();
+    }
+
+    public BackoffPolicy getBackoffPolicy() {
+        return backoffPolicy;
+    }
+
+    /**
+     * Tries to meet an operation of the opposite kind in a random slot of the elimination array
+     *
+     * @return the offer of the opposite operation, or null if none showed up in time. The offer is reset so it can be
+     * used again
+     */
+    private Offer<T> eliminate(Offer<T> offer) {
+        offer.partner = null;
+        int slot = ThreadLocalRandom.current().nextInt(eliminationArray.length());
+        Offer<T> waiting = eliminationArray.get(slot);
+
+        if (waiting == null) {
+            //Nobody in the slot: wait there for a partner
+            if (!eliminationArray.compareAndSet(slot, null, offer)) {
+                return null;
+            }
+            for (int i = 0; i < ELIMINATION_SPINS; i++) {
+                Offer<T> partner = offer.partner;
+                if (partner != null) {
+                    return partner;
+                }
+                Thread.onSpinWait();
+            }
+            if (eliminationArray.compareAndSet(slot, offer, null)) {
+                return null;
+            }
+            //A partner took the offer out of the slot just before we gave up: it is setting partner right now
+            Offer<T> partner;
+            while ((partner = offer.partner) == null) {
+                Thread.onSpinWait();
+            }
+            return partner;
+        }
+
+        //Someone is waiting: only a push and a pop can cancel each other
+        if (waiting.push != offer.push && eliminationArray.compareAndSet(slot, waiting, null)) {
+            waiting.partner = offer;
+            return waiting;
+        }
+        return null;
+    }
+
+    private static class Node<T> {
+        private final T value;
+        private Node<T> next;
+
+        private Node(T value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * A push (with its value) or a pop waiting in the elimination array. The thread that takes it out of the slot sets
+     * partner to its own offer, which tells the waiting thread that it has been eliminated
+     */
+    private static class Offer<T> {
+        private final boolean push;
+        private final T value;
+        private volatile Offer<T> partner;
+
+        private Offer(boolean push, T value) {
+            this.push = push;
+            this.value = value;
+        }
+    }
+}
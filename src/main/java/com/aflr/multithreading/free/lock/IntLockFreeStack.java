@@ -0,0 +1,219 @@
+package com.aflr.multithreading.free.lock;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free stack of primitive ints that allocates nothing after construction. The LockFreeStack allocates a StackNode
+ * and boxes an Integer for every push, so its pushing threads produce hundreds of MB of garbage per second.
+ *
+ * Here the nodes are slots of two preallocated arrays: values[i] is the value of node i and next[i] the index of the
+ * node below it (NIL at the bottom). The unused slots form a second stack, the free list: a push takes a slot from the
+ * free list and pushes it on the stack, a pop does the opposite. Both are Treiber stacks like the LockFreeStack, with
+ * a CAS on their head.
+ *
+ * Reusing slots brings the ABA problem: a thread reads head = A and next[A] = B, gets suspended, and meanwhile A is
+ * popped, B is popped and A is pushed back. head is A again, so its CAS would succeed and install B, which is now free.
+ * To prevent it, each head is an AtomicLong holding the index in the low 32 bits and a version tag in the high 32 bits
+ * that every successful CAS increments: the suspended thread sees the same index but a different tag, and its CAS
+ * fails. The tag wraps after 2^32 updates, so a thread would have to stay suspended for exactly that many operations.
+ *
+ * values and next are plain arrays: they are written before the CAS that publishes the slot and read after the read of
+ * head that found it, so the volatile semantics of the AtomicLong make them visible. A stale next read by a thread
+ * that lost the race is harmless, since its CAS fails.
+ */
+public class IntLockFreeStack {
+    /**
+     * Returned by tryPop when the stack is empty. Outside of the int range, so it can't be mistaken for a value
+     */
+    public static final long EMPTY = Long.MIN_VALUE;
+    private static final int NIL = -1;
+
+    private final int[] values;
+    private final int[] next;
+    private final AtomicLong head = new AtomicLong(pack(0, NIL));
+    private final AtomicLong freeHead = new AtomicLong(pack(0, 0));
+    private final LongAdder counter = new LongAdder();
+    private final BackoffPolicy backoffPolicy;
+
+    public static void main(String[] args) throws InterruptedException {
+        IntLockFreeStack stack = new IntLockFreeStack(1 << 20);
+
+        for (int i = 0; i < 100000; i++) {
+            stack.push(ThreadLocalRandom.current().nextInt());
+        }
+        long prePopulationOperations = stack.getCounter();
+
+        List<Thread> threads = new ArrayList<>();
+        int pushingThreads = 2;
+        int poppingThreads = 2;
+
+        for (int i = 0; i < pushingThreads; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (true) {
+                    stack.tryPush(random.nextInt());
+                }
+            }));
+        }
+        for (int i = 0; i < poppingThreads; i++) {
+            threads.add(new Thread(() -> {
+                while (true) {
+                    stack.tryPop();
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        //Let the JIT compile the loops before measuring what the threads allocate
+        Thread.sleep(1000);
+        long allocatedBytesBefore = getAllocatedBytes(threads);
+        Thread.sleep(10000);
+        long allocatedBytes = getAllocatedBytes(threads) - allocatedBytesBefore;
+
+        System.out.println(String.format("%,d operations were performed in 11 seconds ",
+                stack.getCounter() - prePopulationOperations));
+        System.out.println(String.format("%,d bytes were allocated by the pushing/popping threads in the last 10 seconds",
+                allocatedBytes));
+        System.out.println(stack.getBackoffPolicy());
+    }
+
+    private static long getAllocatedBytes(List<Thread> threads) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBytes = 0;
+        for (Thread thread : threads) {
+            allocatedBytes += threadMXBean.getThreadAllocatedBytes(thread.threadId());
+        }
+        return allocatedBytes;
+    }
+
+    public IntLockFreeStack(int capacity) {
+        this(capacity, BackoffPolicy.none());
+    }
+
+    /**
+     * @param capacity      maximum number of values in the stack. Both arrays are allocated upfront
+     * @param backoffPolicy what to do when the CAS on the head of the stack or of the free list fails
+     */
+    public IntLockFreeStack(int capacity, BackoffPolicy backoffPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.values = new int[capacity];
+        this.next = new int[capacity];
+        for (int i = 0; i < capacity - 1; i++) {
+            next[i] = i + 1;
+        }
+        next[capacity - 1] = NIL;
+        this.backoffPolicy = backoffPolicy;
+    }
+
+    /**
+     * @throws IllegalStateException if the stack is full
+     */
+    public void push(int value) {
+        if (!tryPush(value)) {
+            throw new IllegalStateException("Stack is full: " + values.length);
+        }
+    }
+
+    /**
+     * @return false if the stack is full
+     */
+    public boolean tryPush(int value) {
+        int node = popNode(freeHead);
+        if (node == NIL) {
+            return false;
+        }
+        values[node] = value;
+        pushNode(head, node);
+        counter.increment();
+        return true;
+    }
+
+    /**
+     * Pops without boxing the value or allocating an Optional
+     *
+     * @return the value on top of the stack, or EMPTY if the stack is empty
+     */
+    public long tryPop() {
+        int node = popNode(head);
+        counter.increment();
+        if (node == NIL) {
+            return EMPTY;
+        }
+        int value = values[node];
+        pushNode(freeHead, node);
+        return value;
+    }
+
+    /**
+     * Shortcut for stacks that never hold valueIfEmpty. Otherwise use tryPop, since this can't tell an empty stack from
+     * a stored valueIfEmpty
+     *
+     * @return the value on top of the stack, or valueIfEmpty if the stack is empty
+     */
+    public int pop(int valueIfEmpty) {
+        long value = tryPop();
+        return value == EMPTY ? valueIfEmpty : (int) value;
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    public long getCounter() {
+        return counter.sum();
+    }
+
+    public BackoffPolicy getBackoffPolicy() {
+        return backoffPolicy;
+    }
+
+    private void pushNode(AtomicLong stackHead, int node) {
+        int attempt = 0;
+        while (true) {
+            long currentHead = stackHead.get();
+            next[node] = index(currentHead);
+            if (stackHead.compareAndSet(currentHead, pack(tag(currentHead) + 1, node))) {
+                return;
+            }
+            backoffPolicy.onCasFailure(++attempt);
+        }
+    }
+
+    private int popNode(AtomicLong stackHead) {
+        int attempt = 0;
+        while (true) {
+            long currentHead = stackHead.get();
+            int node = index(currentHead);
+            if (node == NIL) {
+                return NIL;
+            }
+            if (stackHead.compareAndSet(currentHead, pack(tag(currentHead) + 1, next[node]))) {
+                return node;
+            }
+            backoffPolicy.onCasFailure(++attempt);
+        }
+    }
+
+    private static long pack(int tag, int index) {
+        return ((long) tag << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    private static int tag(long head) {
+        return (int) (head >>> 32);
+    }
+
+    private static int index(long head) {
+        return (int) head;
+    }
+}
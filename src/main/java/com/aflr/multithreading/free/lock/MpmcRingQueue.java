@@ -0,0 +1,216 @@
+package com.aflr.multithreading.free.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free FIFO queue for any number of producers and consumers (Dmitry Vyukov's bounded MPMC queue). It is
+ * the FIFO counterpart of the LockFreeStack: no lock, every operation is a CAS on a shared cursor.
+ *
+ * The queue is an array of slots, and every slot has a sequence number telling whose turn it is:
+ * - sequence == position: the slot is free for the producer that claims enqueue position `position`
+ * - sequence == position + 1: the slot holds the element written at `position`, ready for the consumer of that position
+ * A producer reads the enqueue cursor, checks the sequence of its slot and claims the position with a CAS on the cursor;
+ * it then writes the element and publishes it by setting the sequence to position + 1. A consumer does the same on the
+ * dequeue cursor and frees the slot for the next lap by setting the sequence to position + capacity. Producers only
+ * contend with producers and consumers with consumers, and a full or empty queue is detected without a lock.
+ *
+ * The two cursors are written by different threads all the time. If they shared a cache line, every offer would
+ * invalidate the line the consumers are polling (false sharing), so each one is padded to its own cache lines.
+ *
+ * offer/poll never block. put/take and the timed offer/poll wait for room or elements by spinning a little, then
+ * yielding, then parking for short periods: there is no lock to wait on, so nobody signals a waiting thread.
+ */
+public class MpmcRingQueue<T> {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final PaddedAtomicLong enqueuePosition = new PaddedAtomicLong();
+    private final PaddedAtomicLong dequeuePosition = new PaddedAtomicLong();
+    private final BackoffPolicy backoffPolicy;
+
+    public MpmcRingQueue(int capacity) {
+        this(capacity, BackoffPolicy.none());
+    }
+
+    /**
+     * @param capacity      maximum number of elements in the queue, rounded up to a power of 2
+     * @param backoffPolicy what to do when the CAS on a cursor fails
+     */
+    public MpmcRingQueue(int capacity, BackoffPolicy backoffPolicy) {
+        if (capacity < 2 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 2 and 2^30: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.elements = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.backoffPolicy = backoffPolicy;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    public boolean offer(T element) {
+        if (element == null) {
+            throw new NullPointerException("element");
+        }
+        int attempt = 0;
+        long position = enqueuePosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - position;
+            if (difference == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    elements[index] = element;
+                    sequences.setRelease(index, position + 1);
+                    return true;
+                }
+                backoffPolicy.onCasFailure(++attempt);
+            } else if (difference < 0) {
+                //The slot still holds the element written one lap ago: the queue is full
+                return false;
+            }
+            //Another producer claimed this position first
+            position = enqueuePosition.get();
+        }
+    }
+
+    /**
+     * @return the oldest element, or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        int attempt = 0;
+        long position = dequeuePosition.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.getAcquire(index) - (position + 1);
+            if (difference == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    T element = (T) elements[index];
+                    elements[index] = null;
+                    sequences.setRelease(index, position + mask + 1);
+                    return element;
+                }
+                backoffPolicy.onCasFailure(++attempt);
+            } else if (difference < 0) {
+                //No producer published this position yet: the queue is empty
+                return null;
+            }
+            //Another consumer took this position first
+            position = dequeuePosition.get();
+        }
+    }
+
+    /**
+     * Waits until there is room for the element
+     */
+    public void put(T element) throws InterruptedException {
+        int idleRounds = 0;
+        while (!offer(element)) {
+            idle(idleRounds++);
+        }
+    }
+
+    /**
+     * Waits until an element is available
+     */
+    public T take() throws InterruptedException {
+        int idleRounds = 0;
+        T element;
+        while ((element = poll()) == null) {
+            idle(idleRounds++);
+        }
+        return element;
+    }
+
+    /**
+     * @return false if the queue was still full after the timeout
+     */
+    public boolean offer(T element, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int idleRounds = 0;
+        while (!offer(element)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            idle(idleRounds++);
+        }
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if the queue was still empty after the timeout
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int idleRounds = 0;
+        T element;
+        while ((element = poll()) == null) {
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            idle(idleRounds++);
+        }
+        return element;
+    }
+
+    /**
+     * Number of elements in the queue. It is only a snapshot: producers and consumers may change it right after
+     */
+    public int size() {
+        while (true) {
+            long dequeued = dequeuePosition.get();
+            long enqueued = enqueuePosition.get();
+            if (dequeued == dequeuePosition.get()) {
+                return (int) Math.max(0, Math.min(enqueued - dequeued, capacity()));
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public BackoffPolicy getBackoffPolicy() {
+        return backoffPolicy;
+    }
+
+    private static void idle(int idleRounds) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (idleRounds < SPINS) {
+            Thread.onSpinWait();
+        } else if (idleRounds < SPINS + YIELDS) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * AtomicLong followed by 120 bytes of unused fields. The fields of a subclass are laid out after those of its
+     * superclass, so the value of the next object in memory is at least two cache lines away
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        private long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+    }
+}
@@ -0,0 +1,295 @@
+package com.aflr.multithreading.free.lock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.aflr.multithreading.free.lock.AtomicReferenceExample.LockFreeStack;
+import com.aflr.multithreading.free.lock.AtomicReferenceExample.Stack;
+import com.aflr.multithreading.free.lock.AtomicReferenceExample.StandardStack;
+import com.aflr.multithreading.locking.instrumented.Percentiles;
+
+/**
+ * Runs the same pushing/popping workload against every Stack implementation, and the IntLockFreeStack, in turn and
+ * reports, for each of them:
+ * - ops/sec over the measurement window (warmup excluded)
+ * - CAS failure rate: retries that went through the BackoffPolicy per operation. The StandardStack has no CAS, and in
+ *   the EliminationBackoffStack a failed CAS only reaches the policy when the elimination fails too
+ * - p50/p99/p99.9 latency of a single push or pop
+ *
+ * Every worker thread times its own operations with System.nanoTime into its own histogram, so recording is a few
+ * plain array writes with no sharing between threads; the histograms are merged when the run is over. nanoTime itself
+ * costs ~20 ns, about as much as an uncontended push, so the latencies include it. The buckets are the ones of the
+ * LatencyHistogram (see Percentiles): powers of 2, percentiles being the upper bound of their bucket.
+ *
+ * Parameters (Config):
+ * - pushingThreads / poppingThreads: number of threads of each kind
+ * - ownOperationRatio: share of the operations of a pushing thread that are pushes (and of a popping thread that are
+ *   pops). 1 means pushers only push and poppers only pop, 0.5 makes every thread do half of each
+ * - warmup / duration: the threads run for warmup first (to let the JIT compile the stack) and are measured for duration
+ *
+ * With more pushes than pops the stack would grow for the whole run, until the numbers measure allocation and GC rather
+ * than the stack (or the heap runs out). So the depth is capped: every worker counts its own successful pushes minus
+ * pops, and once that count reaches MAX_GROWTH divided by the number of workers, it pops instead of pushing. The count
+ * is local to the worker, so the cap costs no shared write, and the stack never holds more than INITIAL_SIZE +
+ * MAX_GROWTH values.
+ *
+ * Run with: java -cp target/classes com.aflr.multithreading.free.lock.StackBenchmark [pushingThreads poppingThreads
+ * ownOperationRatio warmupSeconds durationSeconds]
+ */
+public class StackBenchmark {
+    private static final int INITIAL_SIZE = 100000;
+    private static final int MAX_GROWTH = 1 << 20;
+    private static final int BUCKETS = Percentiles.BUCKETS;
+
+    public static void main(String[] args) throws InterruptedException {
+        Config config;
+        try {
+            config = Config.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: StackBenchmark [pushingThreads poppingThreads ownOperationRatio warmupSeconds"
+                    + " durationSeconds]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println(config);
+        for (Implementation implementation : Implementation.all()) {
+            System.out.println(run(implementation, config));
+        }
+    }
+
+    /**
+     * @param name          shown in the report
+     * @param backoffPolicy creates a new policy for every run, so its counters only see that run
+     * @param factory       creates the stack with the given BackoffPolicy
+     * @param usesCas       false for the stacks that ignore the BackoffPolicy, so no CAS failure rate is reported
+     */
+    record Implementation(String name, Supplier<BackoffPolicy> backoffPolicy,
+                                 Function<BackoffPolicy, BenchmarkedStack> factory, boolean usesCas) {
+
+        static List<Implementation> all() {
+            int eliminationArraySize = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            return List.of(
+                    new Implementation("StandardStack", BackoffPolicy::none,
+                            backoffPolicy -> BenchmarkedStack.of(new StandardStack<>()), false),
+                    new Implementation("LockFreeStack park(1ns)", () -> BackoffPolicy.park(1),
+                            backoffPolicy -> BenchmarkedStack.of(new LockFreeStack<>(backoffPolicy)), true),
+                    new Implementation("LockFreeStack spin", BackoffPolicy::spin,
+                            backoffPolicy -> BenchmarkedStack.of(new LockFreeStack<>(backoffPolicy)), true),
+                    new Implementation("LockFreeStack exponential(64)", () -> BackoffPolicy.exponential(64),
+                            backoffPolicy -> BenchmarkedStack.of(new LockFreeStack<>(backoffPolicy)), true),
+                    new Implementation("EliminationBackoffStack", BackoffPolicy::none,
+                            backoffPolicy -> BenchmarkedStack.of(
+                                    new EliminationBackoffStack<>(eliminationArraySize, backoffPolicy)), true),
+                    new Implementation("IntLockFreeStack", BackoffPolicy::none,
+                            backoffPolicy -> BenchmarkedStack.of(new IntLockFreeStack(INITIAL_SIZE + MAX_GROWTH,
+                                    backoffPolicy)), true));
+        }
+    }
+
+    /**
+     * What the workers need from a stack, so that the Stack implementations and the IntLockFreeStack, which stores
+     * primitive ints, can be measured by the same loop
+     */
+    interface BenchmarkedStack {
+        void push(int value);
+
+        /**
+         * @return false if the stack was empty
+         */
+        boolean pop();
+
+        /**
+         * Pushing boxes the value, like any caller of a Stack<Integer> would
+         */
+        static BenchmarkedStack of(Stack<Integer> stack) {
+            return new BenchmarkedStack() {
+                @Override
+                public void push(int value) {
+                    stack.push(value);
+                }
+
+                @Override
+                public boolean pop() {
+                    return stack.pop() != null;
+                }
+            };
+        }
+
+        /**
+         * The capacity must cover INITIAL_SIZE + MAX_GROWTH: a push to a full stack would not count as a push
+         */
+        static BenchmarkedStack of(IntLockFreeStack stack) {
+            return new BenchmarkedStack() {
+                @Override
+                public void push(int value) {
+                    stack.push(value);
+                }
+
+                @Override
+                public boolean pop() {
+                    return stack.tryPop() != IntLockFreeStack.EMPTY;
+                }
+            };
+        }
+    }
+
+    public record Config(int pushingThreads, int poppingThreads, double ownOperationRatio, Duration warmup,
+                         Duration duration) {
+        public static final Config DEFAULT = new Config(2, 2, 1, Duration.ofSeconds(2), Duration.ofSeconds(10));
+
+        /**
+         * @param args none for the DEFAULT, or the 5 parameters in the order of the record
+         * @throws IllegalArgumentException if there is another number of args or one of them is invalid
+         */
+        static Config parse(String[] args) {
+            if (args.length == 0) {
+                return DEFAULT;
+            }
+            if (args.length != 5) {
+                throw new IllegalArgumentException("Expected 0 or 5 arguments but got " + args.length);
+            }
+            return new Config(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Double.parseDouble(args[2]),
+                    Duration.ofSeconds(Long.parseLong(args[3])), Duration.ofSeconds(Long.parseLong(args[4])));
+        }
+
+        public Config {
+            if (pushingThreads < 0 || poppingThreads < 0 || pushingThreads + poppingThreads == 0) {
+                throw new IllegalArgumentException("Need at least one thread: " + pushingThreads + " pushing, "
+                        + poppingThreads + " popping");
+            }
+            if (ownOperationRatio < 0 || ownOperationRatio > 1) {
+                throw new IllegalArgumentException("ownOperationRatio must be between 0 and 1: " + ownOperationRatio);
+            }
+        }
+    }
+
+    public record Result(String name, long operations, Duration duration, long casFailures, boolean usesCas,
+                         long[] latencyBuckets) {
+
+        public double getOperationsPerSecond() {
+            return operations * 1e9 / duration.toNanos();
+        }
+
+        /**
+         * @return CAS failures per operation, NaN if the stack doesn't use CAS
+         */
+        public double getCasFailureRate() {
+            return usesCas ? (double) casFailures / Math.max(operations, 1) : Double.NaN;
+        }
+
+        /**
+         * @param percentile between 0 and 100, e.g. 99.9
+         * @return upper bound (in ns) of the bucket containing that percentile, 0 if nothing was recorded
+         */
+        public long getPercentileNanos(double percentile) {
+            return Percentiles.ofBuckets(latencyBuckets, percentile);
+        }
+
+        @Override
+        public String toString() {
+            String casFailureRate = usesCas ? String.format("%.4f", getCasFailureRate()) : "n/a";
+            return String.format("%-30s %,15.0f ops/sec  CAS failures/op=%-8s p50<=%,dns p99<=%,dns p99.9<=%,dns",
+                    name, getOperationsPerSecond(), casFailureRate, getPercentileNanos(50), getPercentileNanos(99),
+                    getPercentileNanos(99.9));
+        }
+    }
+
+    static Result run(Implementation implementation, Config config) throws InterruptedException {
+        BackoffPolicy backoffPolicy = implementation.backoffPolicy().get();
+        BenchmarkedStack stack = implementation.factory().apply(backoffPolicy);
+        for (int i = 0; i < INITIAL_SIZE; i++) {
+            stack.push(ThreadLocalRandom.current().nextInt());
+        }
+
+        long maxGrowthPerWorker = MAX_GROWTH / (config.pushingThreads() + config.poppingThreads());
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < config.pushingThreads(); i++) {
+            workers.add(new Worker(stack, config.ownOperationRatio(), maxGrowthPerWorker));
+        }
+        for (int i = 0; i < config.poppingThreads(); i++) {
+            workers.add(new Worker(stack, 1 - config.ownOperationRatio(), maxGrowthPerWorker));
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+
+        Thread.sleep(config.warmup().toMillis());
+        long casFailuresBefore = backoffPolicy.getRetries();
+        long measurementStart = System.nanoTime();
+        for (Worker worker : workers) {
+            worker.measuring = true;
+        }
+        Thread.sleep(config.duration().toMillis());
+        for (Worker worker : workers) {
+            worker.running = false;
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        Duration measured = Duration.ofNanos(System.nanoTime() - measurementStart);
+        long casFailures = backoffPolicy.getRetries() - casFailuresBefore;
+
+        long operations = 0;
+        long[] latencyBuckets = new long[BUCKETS];
+        for (Worker worker : workers) {
+            operations += worker.operations;
+            for (int i = 0; i < BUCKETS; i++) {
+                latencyBuckets[i] += worker.latencyBuckets[i];
+            }
+        }
+        return new Result(implementation.name(), operations, measured, casFailures, implementation.usesCas(),
+                latencyBuckets);
+    }
+
+    /**
+     * Pushes with probability pushRatio and pops otherwise, but pops instead of pushing once its own pushes exceed its
+     * pops by maxGrowth. Its operation count, growth and histogram are only written by the worker itself and read after
+     * join, so they need no synchronization
+     */
+    private static class Worker extends Thread {
+        private final BenchmarkedStack stack;
+        private final double pushRatio;
+        private final long maxGrowth;
+        private final long[] latencyBuckets = new long[BUCKETS];
+        private long operations;
+        //successful pushes minus successful pops of this worker
+        private long growth;
+        private volatile boolean measuring;
+        private volatile boolean running = true;
+
+        private Worker(BenchmarkedStack stack, double pushRatio, long maxGrowth) {
+            this.stack = stack;
+            this.pushRatio = pushRatio;
+            this.maxGrowth = maxGrowth;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running) {
+                boolean push = growth < maxGrowth
+                        && (pushRatio >= 1 || (pushRatio > 0 && random.nextDouble() < pushRatio));
+                int value = random.nextInt();
+                long start = System.nanoTime();
+                if (push) {
+                    stack.push(value);
+                    growth++;
+                } else if (stack.pop()) {
+                    growth--;
+                }
+                long latency = System.nanoTime() - start;
+                if (measuring) {
+                    latencyBuckets[Percentiles.bucketOf(latency)]++;
+                    operations++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Phaser;
+import java.util.function.IntFunction;
+
+import com.aflr.multithreading.locking.instrumented.Percentiles;
+
+/**
+ * Per-round crossing latency of a barrier crossed over and over by the same parties, as in an iterative workload where
+ * every step starts once all the threads finished the previous one. For 4 to 256 parties, compares:
+ * - CyclicBarrier: every arrival takes its ReentrantLock, the last one signals a Condition
+ * - Phaser: arrivals are a CAS on its state, waiters spin a little then queue and park
+ * - SenseReversingBarrier: arrivals are an atomic decrement, waiters spin (on multi-core machines) then park
+ *
+ * The parties do no work between two crossings, so a round lasts as long as the barrier takes to gather the parties
+ * and release them. Thread 0 timestamps each of its crossings; the time between two of them is the duration of a round,
+ * reported as the mean, p50 and p99. With more parties than cores, a round takes at least one context switch per party,
+ * which dominates: the differences between the barriers show best with fewer parties than cores.
+ *
+ * Run with: java -cp target/classes com.aflr.multithreading.inter.thread.BarrierBenchmark [rounds]
+ */
+public class BarrierBenchmark {
+    private static final int[] PARTIES = {4, 16, 64, 256};
+    private static final int DEFAULT_ROUNDS = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int rounds = args.length == 0 ? DEFAULT_ROUNDS : Integer.parseInt(args[0]);
+        System.out.println(String.format("%,d rounds after %,d warmup rounds, %d cores", rounds, rounds / 4,
+                Runtime.getRuntime().availableProcessors()));
+        for (int parties : PARTIES) {
+            for (Implementation implementation : Implementation.all()) {
+                System.out.println(String.format("  %3d parties %-22s %s", parties, implementation.name,
+                        run(implementation, parties, rounds)));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Barrier {
+        void await() throws Exception;
+    }
+
+    /**
+     * @param factory creates a barrier for the given number of parties
+     */
+    record Implementation(String name, IntFunction<Barrier> factory) {
+
+        static List<Implementation> all() {
+            return List.of(
+                    new Implementation("CyclicBarrier", parties -> new CyclicBarrier(parties)::await),
+                    new Implementation("Phaser", parties -> new Phaser(parties)::arriveAndAwaitAdvance),
+                    new Implementation("SenseReversingBarrier", parties -> new SenseReversingBarrier(parties)::await));
+        }
+    }
+
+    private static Result run(Implementation implementation, int parties, int rounds) throws InterruptedException {
+        Barrier barrier = implementation.factory.apply(parties);
+        int warmupRounds = rounds / 4;
+        long[] crossedAt = new long[rounds + 1];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < parties; i++) {
+            boolean timing = i == 0;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < warmupRounds; round++) {
+                        barrier.await();
+                    }
+                    for (int round = 0; round <= rounds; round++) {
+                        barrier.await();
+                        if (timing) {
+                            crossedAt[round] = System.nanoTime();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] roundNanos = new long[rounds];
+        for (int round = 0; round < rounds; round++) {
+            roundNanos[round] = crossedAt[round + 1] - crossedAt[round];
+        }
+        return new Result(roundNanos);
+    }
+
+    private record Result(long[] roundNanos) {
+
+        @Override
+        public String toString() {
+            long[] sorted = roundNanos.clone();
+            Arrays.sort(sorted);
+            return String.format("mean=%,8.1f us  p50=%,8.1f us  p99=%,8.1f us",
+                    Arrays.stream(sorted).average().orElse(0) / 1000, Percentiles.ofSorted(sorted, 50) / 1000.0,
+                    Percentiles.ofSorted(sorted, 99) / 1000.0);
+        }
+    }
+}
@@ -1,24 +1,46 @@
 package com.aflr.multithreading.inter.thread;
 
+import com.aflr.multithreading.locking.instrumented.InstrumentedLock;
+
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * A condition variable provides us of a way of scheduling threads waiting on a condition variable (e.g., waking up
  * after a timeout). This example applies a backpressure on the producer as it cannot produce more than a defined
  * capacity until the consumer has processed the records in the queue
+ *
+ * The Storage stops producers at a high watermark and lets them go again once the queue drains to a low watermark.
+ * Producers that can't wait use offer with a timeout or tryOffer and shed the refused items, and an optional rate
+ * limiter slows them down when the consumer lags. The queue depth, the consumer lag and the time producers were blocked
+ * or throttled are exposed so that upstream services can react before latency explodes.
+ *
+ * In main, the consumer is not a thread polling clearQueue: the storage is exposed as a Flow.Publisher
+ * (StoragePublisher) whose subscribers get items as they request them, and it is fed through a Flow.Subscriber
+ * (StorageSubscriber).
  */
 public class ConditionVariableExample {
 
     public static void main(String[] args) throws InterruptedException {
         final int itemsNum = 16;
-        Storage storage = new Storage(5);
+        final int subscribersNum = 3;
+        //Instrumented to see how much the producer, the subscribers and the drain tasks wait for the lock of the storage
+        InstrumentedLock lock = new InstrumentedLock(new ReentrantLock(), "ConditionVariableExample.storage");
+        Storage storage = new Storage(5, lock);
 
         List<Object> items = new ArrayList<>();
 
@@ -26,25 +48,113 @@ public class ConditionVariableExample {
             items.add(new Object());
         }
 
+        //Instead of a consumer thread looping on clearQueue, reactive subscribers take the items as they ask for them.
+        //No thread waits on the storage: the drain tasks run on virtual threads, only when there is something to deliver
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            StoragePublisher publisher = new StoragePublisher(storage, executor);
+            CountDownLatch completed = new CountDownLatch(subscribersNum);
+            List<CountingSubscriber> subscribers = new ArrayList<>();
+            for (int i = 0; i < subscribersNum; i++) {
+                CountingSubscriber subscriber = new CountingSubscriber(2, completed);
+                subscribers.add(subscriber);
+                publisher.subscribe(subscriber);
+            }
+
+            //The producer side is a Flow.Publisher too: the StorageSubscriber adds what it publishes and completes the
+            //storage when it is closed
+            StorageSubscriber storageSubscriber = new StorageSubscriber(storage, 4);
+            try (SubmissionPublisher<Object> producer = new SubmissionPublisher<>(executor, 16)) {
+                producer.subscribe(storageSubscriber);
+                for (Object item : items) {
+                    producer.submit(item);
+                }
+            }
+
+            completed.await();
+            for (int i = 0; i < subscribersNum; i++) {
+                System.out.println("subscriber " + i + " received " + subscribers.get(i).getReceived() + " items");
+            }
+        }
+
+        System.out.println("storage items: " + storage.getItems().size());
+        System.out.println(lock.getStats());
+
+        loadSheddingExample();
+    }
+
+    /**
+     * Asks for batchSize items, and for the next batchSize once it got them all
+     */
+    static class CountingSubscriber implements Flow.Subscriber<Object> {
+        private final int batchSize;
+        private final CountDownLatch completed;
+        private Flow.Subscription subscription;
+        private volatile int received;
+
+        CountingSubscriber(int batchSize, CountDownLatch completed) {
+            this.batchSize = batchSize;
+            this.completed = completed;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(batchSize);
+        }
+
+        @Override
+        public void onNext(Object item) {
+            received++; //Signals are serial, so there is a single writer
+            if (received % batchSize == 0) {
+                subscription.request(batchSize);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throwable.printStackTrace();
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        int getReceived() {
+            return received;
+        }
+    }
+
+    /**
+     * A producer faster than its consumer. Instead of blocking, it uses tryOffer and drops the items the storage refuses
+     * while it is above the high watermark, or as soon as items wait too long for the rate limiter. tryOffer never
+     * pauses, so the producer is neither blocked nor throttled
+     */
+    static void loadSheddingExample() throws InterruptedException {
+        final int itemsNum = 200;
+        Storage storage = new Storage(20, 16, 4, new LagBasedRateLimiter(Duration.ofMillis(2), Duration.ofMillis(1)));
+        int[] shedItems = new int[1];
+
         Thread producer = new Thread(() -> {
             storage.setProcessing();
-            for (Object item : items) {
-                try {
-                    storage.addItem(item);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+            for (int i = 0; i < itemsNum; i++) {
+                if (!storage.tryOffer(new Object())) {
+                    shedItems[0]++;
                 }
             }
-            storage.setComplete();//If the caller doesn't set the complete status, the tread should finish itself automatically after a certain period
+            storage.setComplete();
         });
 
         Thread consumer = new Thread(() -> {
-            //Clear the queue until there is nothing else to process
-            int counter = 0;
             do {
-                counter++;
                 storage.clearQueue();
-            } while (!storage.isCompleted() || counter == itemsNum);
+                try {
+                    Thread.sleep(5); //slow downstream processing
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            } while (!storage.isCompleted());
         });
 
         consumer.start();
@@ -53,19 +163,106 @@ public class ConditionVariableExample {
         consumer.join();
         producer.join();
 
-        System.out.println("storage items: " + storage.getItems().size());
+        System.out.println(String.format("shed items: %d, rejected: %d, producers blocked %d us, throttled %d us",
+                shedItems[0], storage.getRejectedItems(), storage.getBlockedProducerNanos() / 1000,
+                storage.getThrottledProducerNanos() / 1000));
+    }
+
+    /**
+     * Slows producers down once the consumer lags behind: no pause while the oldest waiting item is younger than
+     * targetLag, then a pause that grows linearly with the lag, up to maxPause when the lag reaches twice the target.
+     * Producers slow down gradually instead of running at full speed into the high watermark
+     */
+    static class LagBasedRateLimiter {
+        private final long targetLagNanos;
+        private final long maxPauseNanos;
+
+        public LagBasedRateLimiter(Duration targetLag, Duration maxPause) {
+            if (targetLag.isNegative() || targetLag.isZero()) {
+                throw new IllegalArgumentException("targetLag must be positive: " + targetLag);
+            }
+            this.targetLagNanos = targetLag.toNanos();
+            this.maxPauseNanos = maxPause.toNanos();
+        }
+
+        /**
+         * @return how long the producer should pause before adding its next item
+         */
+        public long pauseNanos(long consumerLagNanos) {
+            if (consumerLagNanos <= targetLagNanos) {
+                return 0;
+            }
+            double overshoot = (double) (consumerLagNanos - targetLagNanos) / targetLagNanos;
+            return (long) (maxPauseNanos * Math.min(overshoot, 1.0));
+        }
     }
 
     static class Storage {
-        Lock lock = new ReentrantLock();
-        Condition conditionConsumer = lock.newCondition();
-        Condition conditionProducer = lock.newCondition();
+        final Lock lock;
+        final Condition conditionConsumer;
+        final Condition conditionProducer;
         volatile Queue<Object> items = new ArrayDeque<>();
         int maxCapacity;
-        private Status status;
+        private final int highWatermark;
+        private final int lowWatermark;
+        private final LagBasedRateLimiter rateLimiter;
+        //Set by the producer and read by the consumers (the StoragePublisher tasks through isCompleted), without the lock
+        private volatile Status status;
+        //Written under the lock, read without it by the metric getters and tryOffer: true from the moment the queue
+        //reaches the high watermark until it drains to the low one
+        private volatile boolean backpressured;
+        //Guarded by lock: when each item still in the queue was added, in queue order, starting at oldestItemIndex
+        private final long[] itemAddedAt;
+        private int oldestItemIndex;
+        //Copies of items.size() and itemAddedAt[oldestItemIndex], written under the lock after every change so that the
+        //metric getters don't have to take it
+        private volatile int queueDepth;
+        private volatile long oldestItemAddedAt;
+        //Called after an item was added or the storage completed, outside the lock
+        private volatile Runnable itemsListener;
+        private final LongAdder blockedProducerNanos = new LongAdder();
+        private final LongAdder throttledProducerNanos = new LongAdder();
+        private final LongAdder rejectedItems = new LongAdder();
 
         public Storage(int maxCapacity) {
+            this(maxCapacity, new ReentrantLock());
+        }
+
+        /**
+         * @param lock guards the queue. Pass an InstrumentedLock to measure how long producers and consumers wait for
+         *             it and hold it: the conditions are created from it, so they are instrumented too
+         */
+        public Storage(int maxCapacity, Lock lock) {
+            this(maxCapacity, maxCapacity, maxCapacity - 1, null, lock);
+        }
+
+        public Storage(int maxCapacity, int highWatermark, int lowWatermark, LagBasedRateLimiter rateLimiter) {
+            this(maxCapacity, highWatermark, lowWatermark, rateLimiter, new ReentrantLock());
+        }
+
+        /**
+         * Producers stop when the queue reaches highWatermark, which also wakes up the consumer, and resume only once it
+         * has drained down to lowWatermark. The gap between the two keeps producers from waking up for every single
+         * item the consumer frees
+         *
+         * @param rateLimiter slows producers down when the consumer lags behind, null to never slow them down
+         * @param lock        guards the queue, and creates the conditions producers and consumers wait on
+         */
+        public Storage(int maxCapacity, int highWatermark, int lowWatermark, LagBasedRateLimiter rateLimiter, Lock lock) {
+            if (highWatermark < 1 || highWatermark > maxCapacity) {
+                throw new IllegalArgumentException("highWatermark must be between 1 and " + maxCapacity + ": " + highWatermark);
+            }
+            if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+                throw new IllegalArgumentException("lowWatermark must be between 0 and " + (highWatermark - 1) + ": " + lowWatermark);
+            }
             this.maxCapacity = maxCapacity;
+            this.highWatermark = highWatermark;
+            this.lowWatermark = lowWatermark;
+            this.rateLimiter = rateLimiter;
+            this.lock = lock;
+            this.conditionConsumer = lock.newCondition();
+            this.conditionProducer = lock.newCondition();
+            this.itemAddedAt = new long[maxCapacity];
             status = Status.INITIAL;
         }
 
@@ -81,10 +278,12 @@ public class ConditionVariableExample {
             } finally {
                 lock.unlock();
             }
+            notifyItemsListener();
         }
 
         public boolean isCompleted() {
-            return status == Status.COMPLETE || status == Status.INTERRUPTED;
+            Status current = status;
+            return current == Status.COMPLETE || current == Status.INTERRUPTED;
         }
 
         public Queue<Object> getItems() {
@@ -92,42 +291,146 @@ public class ConditionVariableExample {
         }
 
         /**
-         * Add items to the queue to be processed by the consumer until the former reaches the max capacity. Once it
-         * reached the max capacity it has to wait until the consumer dequeues items.
+         * Lets a consumer that doesn't wait in clearQueue or drainTo (e.g. the StoragePublisher) know when there is
+         * something to take. The listener runs on the producer thread, after the item was added or the storage completed,
+         * so it must be quick and must not block. A storage has a single listener: setting it replaces the previous one
+         */
+        public void setItemsListener(Runnable itemsListener) {
+            this.itemsListener = itemsListener;
+        }
+
+        private void notifyItemsListener() {
+            Runnable listener = itemsListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        /**
+         * Add items to the queue to be processed by the consumer until the former reaches the high watermark. Once it
+         * reached it, it has to wait until the consumer dequeues items down to the low watermark.
          */
         public void addItem(Object newItem) throws InterruptedException {
+            enqueue(newItem, -1);
+        }
+
+        /**
+         * Same as addItem, but gives up after the timeout
+         *
+         * @return false if the item was not added because the producers were still held back after the timeout
+         */
+        public boolean offer(Object newItem, long timeout, TimeUnit unit) throws InterruptedException {
+            return enqueue(newItem, Math.max(unit.toNanos(timeout), 0));
+        }
+
+        /**
+         * Never waits, neither for the consumer nor for the rate limiter. Lets a producer shed load instead of piling up
+         * behind a slow consumer
+         *
+         * @return false if the item was not added because the queue is between the high and the low watermark, or
+         * because the rate limiter would have paused the producer
+         */
+        public boolean tryOffer(Object newItem) {
+            if (backpressured || (rateLimiter != null && rateLimiter.pauseNanos(getConsumerLagNanos()) > 0)) {
+                rejectedItems.increment();
+                return false;
+            }
+            try {
+                return enqueue(newItem, 0);
+            } catch (InterruptedException e) {
+                //Not thrown: with a timeout of 0, enqueue neither pauses nor awaits
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * @param timeoutNanos how long to wait for the consumer: negative for ever, 0 not at all (and no rate limiter
+         *                     pause either)
+         */
+        private boolean enqueue(Object newItem, long timeoutNanos) throws InterruptedException {
+            if (enqueueLocked(newItem, timeoutNanos)) {
+                notifyItemsListener();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean enqueueLocked(Object newItem, long timeoutNanos) throws InterruptedException {
+            if (rateLimiter != null && timeoutNanos != 0) {
+                long pauseNanos = rateLimiter.pauseNanos(getConsumerLagNanos());
+                if (pauseNanos > 0) {
+                    long pauseStart = System.nanoTime();
+                    TimeUnit.NANOSECONDS.sleep(pauseNanos);
+                    throttledProducerNanos.add(System.nanoTime() - pauseStart);
+                }
+            }
+
             lock.lock();
             try {
-                while (items.size() == maxCapacity) {
+                if (backpressured || items.size() >= highWatermark) {
+                    if (timeoutNanos == 0) {
+                        rejectedItems.increment();
+                        return false;
+                    }
+                    long remainingNanos = timeoutNanos;
+                    long waitStart = System.nanoTime();
+                    try {
+                        while (backpressured || items.size() >= highWatermark) {
+                            if (timeoutNanos > 0 && remainingNanos <= 0) {
+                                rejectedItems.increment();
+                                return false;
+                            }
+                            backpressured = true;
+                            conditionConsumer.signalAll();
+                            if (timeoutNanos < 0) {
+                                conditionProducer.await();
+                            } else {
+                                remainingNanos = conditionProducer.awaitNanos(remainingNanos);
+                            }
+                        }
+                    } finally {
+                        blockedProducerNanos.add(System.nanoTime() - waitStart);
+                    }
+                }
+
+                long now = System.nanoTime();
+                itemAddedAt[(oldestItemIndex + items.size()) % maxCapacity] = now;
+                if (items.isEmpty()) {
+                    oldestItemAddedAt = now;
+                }
+                items.add(newItem);
+                queueDepth = items.size();
+                if (items.size() >= highWatermark) {
+                    backpressured = true;
                     conditionConsumer.signalAll();
-                    System.out.println(Thread.currentThread().getName() + " entering the WAIT state");
-                    conditionProducer.await();
                 }
+                return true;
             } finally {
                 lock.unlock();
             }
-            items.add(newItem);
-            System.out.println(Thread.currentThread().getName() + " current size: " + items.size());
         }
 
         /**
-         * It removes all the items from the queue when the latter has reached its max capacity otherwise it waits until
-         * the queue is full or the process is complete If the producer doesn't end the process it waits for a certain
+         * It removes all the items from the queue when the latter has reached the high watermark otherwise it waits
+         * until it does or the process is complete If the producer doesn't end the process it waits for a certain
          * period of time til no more records are received and then finish itself
          */
         public void clearQueue() {
             lock.lock();
-            System.out.println(Thread.currentThread().getName() + " entering to clear queue");
-
             try {
-                while (items.size() != maxCapacity && !isCompleted()) {
+                while (items.size() < highWatermark && !isCompleted()) {
                     boolean elapsed = !conditionConsumer.await(5000, TimeUnit.MILLISECONDS);
                     if (elapsed)
                         status = Status.INTERRUPTED;
                 }
                 items.clear();
-                System.out.println(Thread.currentThread().getName() + " clearing queue");
-                conditionProducer.signalAll();
+                oldestItemIndex = 0;
+                queueDepth = 0;
+                if (items.size() <= lowWatermark) {
+                    backpressured = false;
+                    conditionProducer.signalAll();
+                }
             } catch (InterruptedException e) {
                 System.out.println(Thread.currentThread().getName() + " was Interrupted");
                 throw new RuntimeException(e);
@@ -137,6 +440,91 @@ public class ConditionVariableExample {
 
         }
 
+        /**
+         * Unlike clearQueue, never waits and hands the items over instead of dropping them: removes up to maxItems of the
+         * oldest items and passes them to consumer in the order they were added. Consumer runs after the lock is
+         * released, so producers are not held up while the batch is processed. If it throws, the rest of the batch is
+         * lost
+         *
+         * @return the number of items passed to consumer, 0 if the queue was empty
+         */
+        public int drainTo(Consumer<Object> consumer, int maxItems) {
+            if (maxItems < 1) {
+                throw new IllegalArgumentException("maxItems must be positive: " + maxItems);
+            }
+            Object[] batch;
+            lock.lock();
+            try {
+                batch = new Object[Math.min(items.size(), maxItems)];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = items.poll();
+                }
+                oldestItemIndex = (oldestItemIndex + batch.length) % maxCapacity;
+                if (!items.isEmpty()) {
+                    oldestItemAddedAt = itemAddedAt[oldestItemIndex];
+                }
+                queueDepth = items.size();
+                if (backpressured && items.size() <= lowWatermark) {
+                    backpressured = false;
+                    conditionProducer.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (Object item : batch) {
+                consumer.accept(item);
+            }
+            return batch.length;
+        }
+
+        /**
+         * Number of items waiting for the consumer
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * How long the oldest item still in the queue has been waiting for the consumer, 0 if the queue is empty. Read
+         * without the lock, so it may be off by the items added or taken while it is computed
+         */
+        public long getConsumerLagNanos() {
+            if (queueDepth == 0) {
+                return 0;
+            }
+            return Math.max(System.nanoTime() - oldestItemAddedAt, 0);
+        }
+
+        /**
+         * true while producers are held back, i.e. from the high watermark down to the low one. Upstream services can
+         * check it to shed load before the queue is full
+         */
+        public boolean isBackpressured() {
+            return backpressured;
+        }
+
+        /**
+         * Total time producers spent waiting for the consumer in addItem and offer
+         */
+        public long getBlockedProducerNanos() {
+            return blockedProducerNanos.sum();
+        }
+
+        /**
+         * Total time producers were paused by the rate limiter
+         */
+        public long getThrottledProducerNanos() {
+            return throttledProducerNanos.sum();
+        }
+
+        /**
+         * Items refused by offer and tryOffer
+         */
+        public long getRejectedItems() {
+            return rejectedItems.sum();
+        }
+
         public enum Status {
             INITIAL,
             PROCESSING,
@@ -72,6 +72,9 @@ public class CountDownLatchExample {
     /**
      * This method considers a whole problem and divides it into N parts and each thread executes each part. The main
      * thread must wait until all thread have done their part
+     *
+     * A new thread per part only works for a few parts: see DivideAndConquer for a version on a ForkJoinPool, and the
+     * DivideAndConquerBenchmark comparing both from 10 to 1M parts
      */
     static void divideAndConquer() throws InterruptedException {
         class LocalWorker extends Thread {
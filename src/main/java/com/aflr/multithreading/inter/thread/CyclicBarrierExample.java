@@ -10,12 +10,33 @@ import java.util.concurrent.ThreadLocalRandom;
 /*
 threads perform and store the corresponding results in a list.
 When all threads finish performing their action, the last one starts processing the data that was fetched by each of the threads.
+
+phasedAggregatorExample does the same without the synchronizedList and the boxing, over several rounds, with the PhasedAggregator.
 * */
 public class CyclicBarrierExample {
-    public static void main(String[] args) {
-        Collections.sort(List.of(""));
+    public static void main(String[] args) throws InterruptedException {
         CyclicBarrierDemo cyclicBarrierDemo = new CyclicBarrierDemo();
         cyclicBarrierDemo.execute();
+
+        phasedAggregatorExample();
+    }
+
+    /**
+     * Every worker sums its 10 random values into a primitive, the PhasedAggregator adds up the partial sums. Each round
+     * also adds a tenth of the previous total, to show that a round can use the result of the previous one
+     */
+    static void phasedAggregatorExample() throws InterruptedException {
+        PhasedAggregator aggregator = new PhasedAggregator(CyclicBarrierDemo.THREAD_NUMBER, Long::sum);
+        long[] totals = aggregator.run(3, 0, (worker, phase, previousTotal) -> {
+            long localTotal = previousTotal / 10 / CyclicBarrierDemo.THREAD_NUMBER;
+            for (int i = 0; i < 10; i++) {
+                localTotal += ThreadLocalRandom.current().nextInt(10);
+            }
+            return localTotal;
+        });
+        for (int phase = 0; phase < totals.length; phase++) {
+            System.out.println("Round " + phase + " final sum: " + totals[phase]);
+        }
     }
 
     static class CyclicBarrierDemo {
@@ -0,0 +1,104 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * Recursive divide and conquer over a range of indexes [from, to), on a ForkJoinPool. The divideAndConquer of the
+ * CountDownLatchExample starts a new platform thread per chunk and waits for all of them on a CountDownLatch: creating
+ * a thread costs tens of microseconds and megabytes of reserved stack, so it doesn't scale past a few dozen chunks.
+ * Here:
+ * - a range larger than sequentialThreshold is split in two halves: the left half is forked (pushed onto the deque of
+ *   the current worker thread), the right half computed right away by the same thread, then the left half is joined
+ * - a range of at most sequentialThreshold indexes is computed sequentially by the leaf task
+ * - idle workers steal the oldest forked tasks from the other deques, i.e. the biggest ranges still to be split, so the
+ *   work spreads over the pool without any central queue, and a thread waiting in join runs other tasks meanwhile
+ * - the results of the two halves are combined on the way back up, so no shared accumulator is needed
+ *
+ * The pool has a fixed number of threads (the number of cores by default), whatever the number of chunks. The threshold
+ * should leave leaves big enough to amortize a fork (around a microsecond of work or more), with a few times more
+ * leaves than threads so that stealing can balance uneven chunks.
+ */
+public class DivideAndConquer<R> {
+    private final ForkJoinPool pool;
+    private final int sequentialThreshold;
+    private final RangeTask<R> leaf;
+    private final BinaryOperator<R> combiner;
+
+    /**
+     * Computes the result of a range sequentially
+     */
+    @FunctionalInterface
+    public interface RangeTask<R> {
+        R compute(int from, int to);
+    }
+
+    /**
+     * Uses the common pool
+     */
+    public DivideAndConquer(int sequentialThreshold, RangeTask<R> leaf, BinaryOperator<R> combiner) {
+        this(ForkJoinPool.commonPool(), sequentialThreshold, leaf, combiner);
+    }
+
+    /**
+     * @param sequentialThreshold ranges of at most this many indexes are not split any more
+     * @param leaf                computes a range of at most sequentialThreshold indexes
+     * @param combiner            combines the results of two adjacent ranges, left first. Must be associative
+     */
+    public DivideAndConquer(ForkJoinPool pool, int sequentialThreshold, RangeTask<R> leaf, BinaryOperator<R> combiner) {
+        if (sequentialThreshold < 1) {
+            throw new IllegalArgumentException("sequentialThreshold must be positive: " + sequentialThreshold);
+        }
+        this.pool = pool;
+        this.sequentialThreshold = sequentialThreshold;
+        this.leaf = leaf;
+        this.combiner = combiner;
+    }
+
+    /**
+     * Computes [from, to) on the pool and waits for the result. Can also be called from a task of the same pool: the
+     * calling worker then takes part in the computation instead of blocking. Any bounds are accepted, negative ones
+     * included, as long as from is not after to
+     */
+    public R compute(int from, int to) {
+        if (from > to) {
+            throw new IllegalArgumentException("from must not be after to: " + from + " > " + to);
+        }
+        return pool.invoke(new RangeSplitter(from, to));
+    }
+
+    public int getSequentialThreshold() {
+        return sequentialThreshold;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    private class RangeSplitter extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private RangeSplitter(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            //In long: the size and the sum of the bounds overflow an int once the range spans more than Integer.MAX_VALUE
+            long size = (long) to - from;
+            if (size <= sequentialThreshold) {
+                return leaf.compute(from, to);
+            }
+            int middle = from + (int) (size >>> 1);
+            RangeSplitter left = new RangeSplitter(from, middle);
+            left.fork();
+            R right = new RangeSplitter(middle, to).compute();
+            return combiner.apply(left.join(), right);
+        }
+    }
+}
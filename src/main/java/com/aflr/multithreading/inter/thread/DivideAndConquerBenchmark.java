@@ -0,0 +1,100 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sums an array of ELEMENTS ints split into 10 to 1M chunks, two ways:
+ * - the CountDownLatchExample way: a new platform thread per chunk, each storing its partial sum, and the main thread
+ *   waiting on a CountDownLatch before adding the partial sums up
+ * - DivideAndConquer on the common ForkJoinPool, with a sequential threshold of ELEMENTS / chunks, so that its leaves
+ *   are about the size of the chunks
+ *
+ * The sum is cheap, so past a few chunks the time is the cost of the parallelism itself: one thread creation per chunk
+ * on one side, one fork and join per split on the other. A thread per chunk gets slow enough that it is only run up
+ * to maxLatchChunks chunks (100k by default).
+ *
+ * Run with: java -cp target/classes com.aflr.multithreading.inter.thread.DivideAndConquerBenchmark [maxLatchChunks]
+ */
+public class DivideAndConquerBenchmark {
+    private static final int ELEMENTS = 1 << 23;
+    private static final int[] CHUNKS = {10, 100, 1_000, 10_000, 100_000, 1_000_000};
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxLatchChunks = args.length == 0 ? 100_000 : Integer.parseInt(args[0]);
+        int[] values = new int[ELEMENTS];
+        long expected = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextInt(1000);
+            expected += values[i];
+        }
+
+        System.out.println(String.format("Sum of %,d ints, best of %d runs, %d cores", ELEMENTS, RUNS,
+                Runtime.getRuntime().availableProcessors()));
+        for (int chunks : CHUNKS) {
+            String latch = "skipped";
+            if (chunks <= maxLatchChunks) {
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++) {
+                    long start = System.nanoTime();
+                    check(expected, sumWithThreadPerChunk(values, chunks));
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                latch = String.format("%,10.2f ms", best / 1e6);
+            }
+
+            int threshold = (ELEMENTS + chunks - 1) / chunks;
+            DivideAndConquer<Long> divideAndConquer = new DivideAndConquer<>(threshold,
+                    (from, to) -> sum(values, from, to), Long::sum);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                check(expected, divideAndConquer.compute(0, ELEMENTS));
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("  %,9d chunks   thread per chunk + latch %13s   fork/join %,10.2f ms",
+                    chunks, latch, best / 1e6));
+        }
+    }
+
+    private static long sumWithThreadPerChunk(int[] values, int chunks) throws InterruptedException {
+        long[] partialSums = new long[chunks];
+        CountDownLatch doneSignal = new CountDownLatch(chunks);
+        int chunkSize = (values.length + chunks - 1) / chunks;
+        for (int i = 0; i < chunks; i++) {
+            int chunk = i;
+            new Thread(() -> {
+                try {
+                    int from = Math.min(chunk * chunkSize, values.length);
+                    partialSums[chunk] = sum(values, from, Math.min(from + chunkSize, values.length));
+                } finally {
+                    doneSignal.countDown();
+                }
+            }).start();
+        }
+        doneSignal.await();
+
+        //The countDown of every thread happens before the await returns, so their partial sums are visible
+        long total = 0;
+        for (long partialSum : partialSums) {
+            total += partialSum;
+        }
+        return total;
+    }
+
+    private static long sum(int[] values, int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private static void check(long expected, long actual) {
+        if (actual != expected) {
+            throw new IllegalStateException("Expected a sum of " + expected + " but got " + actual);
+        }
+    }
+}
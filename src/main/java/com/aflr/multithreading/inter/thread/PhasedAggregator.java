@@ -0,0 +1,126 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Scatter/gather reduction over several phases, for iterative computations where every round needs the result of the
+ * previous one. The CyclicBarrierExample gathers the partial results into a synchronizedList (a lock per addAll, a boxed
+ * Integer per value) and streams them to sum them up. Here:
+ * - every worker writes its partial result, a primitive long, into its own slot of a long[]. Slots are SLOT_STRIDE
+ *   longs apart so that no two workers write to the same cache line (or to the pair of lines the CPU prefetches
+ *   together): writing a partial result is a plain store, with no lock, no CAS and no false sharing
+ * - the workers then arrive at a Phaser. Its barrier action (onAdvance, run by the last worker to arrive) combines the
+ *   slots pairwise, as a binary tree (slot 0 with 1, 2 with 3..., then 0 with 2...), and records the result of the phase.
+ *   Phaser publishes it to the workers when it releases them, so they can use it in the next phase
+ * - the same threads run every phase: threads are created once per run, not once per phase
+ *
+ * The combiner must be associative (sum, min, max...), since the tree groups the partial results differently from a
+ * left-to-right fold. If a task throws, the phaser is terminated, which releases the other workers, and run throws.
+ */
+public class PhasedAggregator {
+    //16 longs = 128 bytes: two cache lines per slot
+    private static final int SLOT_STRIDE = 16;
+
+    private final int workers;
+    private final LongBinaryOperator combiner;
+
+    /**
+     * Computes the partial result of a worker for a phase
+     */
+    @FunctionalInterface
+    public interface PartialTask {
+        /**
+         * @param previousResult combined result of the previous phase, the initialValue given to run for phase 0
+         */
+        long compute(int worker, int phase, long previousResult) throws Exception;
+    }
+
+    public PhasedAggregator(int workers, LongBinaryOperator combiner) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.workers = workers;
+        this.combiner = combiner;
+    }
+
+    /**
+     * Runs the given number of phases on workers threads
+     *
+     * @param initialValue passed to the tasks of phase 0 as the previous result
+     * @return the combined result of every phase
+     * @throws IllegalStateException if a task failed
+     */
+    public long[] run(int phases, long initialValue, PartialTask task) throws InterruptedException {
+        if (phases < 1) {
+            throw new IllegalArgumentException("phases must be positive: " + phases);
+        }
+        //Slot 0 starts one stride in, away from the array header
+        long[] slots = new long[(workers + 1) * SLOT_STRIDE];
+        long[] results = new long[phases];
+        Throwable[] failure = new Throwable[1];
+
+        Phaser phaser = new Phaser(workers) {
+            @Override
+            protected boolean onAdvance(int phase, int registeredParties) {
+                results[phase] = reduce(slots);
+                //true terminates the phaser: the workers stop after the last phase
+                return phase + 1 >= phases;
+            }
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            int worker = i;
+            int slot = (worker + 1) * SLOT_STRIDE;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int phase = 0; !phaser.isTerminated(); phase++) {
+                        long previousResult = phase == 0 ? initialValue : results[phase - 1];
+                        slots[slot] = task.compute(worker, phase, previousResult);
+                        phaser.arriveAndAwaitAdvance();
+                    }
+                } catch (Throwable e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                    //The other workers would wait for this one forever
+                    phaser.forceTermination();
+                }
+            }, "aggregator-worker-" + worker));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IllegalStateException("A worker failed", failure[0]);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Tree reduction of the slots of all the workers, in place: at each level, a slot absorbs the one distance slots
+     * further, and the distance doubles, so the result ends up in the first slot after log2(workers) levels
+     */
+    private long reduce(long[] slots) {
+        for (int distance = 1; distance < workers; distance *= 2) {
+            for (int worker = 0; worker + distance < workers; worker += 2 * distance) {
+                int slot = (worker + 1) * SLOT_STRIDE;
+                slots[slot] = combiner.applyAsLong(slots[slot], slots[slot + distance * SLOT_STRIDE]);
+            }
+        }
+        return slots[SLOT_STRIDE];
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+}
@@ -0,0 +1,136 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.aflr.multithreading.free.lock.MpmcRingQueue;
+
+/**
+ * Moves the same number of items from producers to consumers through the MpmcRingQueue, an ArrayBlockingQueue and the
+ * Storage of the ConditionVariableExample, and prints the throughput of each.
+ *
+ * The queues are measured with 1 producer/1 consumer and with several of each. The Storage only takes part in the
+ * 1/1 run: its consumer doesn't receive the items one by one, it waits until the queue is full and clears it, so more
+ * consumers would not take more items.
+ */
+public class QueueBenchmark {
+    private static final int ITEMS = 2_000_000;
+    private static final int CAPACITY = 1024;
+    private static final Object POISON_PILL = new Object();
+
+    public static void main(String[] args) throws InterruptedException {
+        int[][] producersAndConsumers = {{1, 1}, {2, 2}, {4, 4}};
+        for (int[] threads : producersAndConsumers) {
+            int producers = threads[0];
+            int consumers = threads[1];
+            System.out.println(String.format("%d producer(s), %d consumer(s), %,d items, capacity %d", producers,
+                    consumers, ITEMS, CAPACITY));
+
+            MpmcRingQueue<Object> ringQueue = new MpmcRingQueue<>(CAPACITY);
+            print("MpmcRingQueue", measure(producers, consumers, ringQueue::put, ringQueue::take));
+
+            BlockingQueue<Object> blockingQueue = new ArrayBlockingQueue<>(CAPACITY);
+            print("ArrayBlockingQueue", measure(producers, consumers, blockingQueue::put, blockingQueue::take));
+
+            if (producers == 1 && consumers == 1) {
+                print("ConditionVariableExample.Storage", measureStorage(CAPACITY, ITEMS));
+            }
+        }
+    }
+
+    private static void print(String name, long nanos) {
+        System.out.println(String.format("  %-35s %,6d ms %,15.0f items/sec", name, nanos / 1_000_000,
+                ITEMS * 1e9 / nanos));
+    }
+
+    /**
+     * Every producer puts its share of ITEMS, then one poison pill per consumer tells the consumers to stop
+     *
+     * @return nanoseconds until the last consumer stopped
+     */
+    private static long measure(int producers, int consumers, Put put, Take take) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (take.take() != POISON_PILL) {
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        List<Thread> producerThreads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            int items = ITEMS / producers + (i < ITEMS % producers ? 1 : 0);
+            producerThreads.add(new Thread(() -> {
+                Object item = new Object();
+                try {
+                    for (int j = 0; j < items; j++) {
+                        put.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        producerThreads.forEach(Thread::start);
+        for (Thread producer : producerThreads) {
+            producer.join();
+        }
+        for (int i = 0; i < consumers; i++) {
+            put.put(POISON_PILL);
+        }
+        for (Thread consumer : threads) {
+            consumer.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * One producer adds the items to a Storage of the given capacity while one consumer clears it, until the producer
+     * completes the storage. Also used by the RingBufferStorageExample
+     *
+     * @return nanoseconds until the consumer stopped
+     */
+    static long measureStorage(int capacity, int items) throws InterruptedException {
+        ConditionVariableExample.Storage storage = new ConditionVariableExample.Storage(capacity);
+        Thread producer = new Thread(() -> {
+            storage.setProcessing();
+            Object item = new Object();
+            try {
+                for (int i = 0; i < items; i++) {
+                    storage.addItem(item);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            storage.setComplete();
+        });
+        Thread consumer = new Thread(() -> {
+            do {
+                storage.clearQueue();
+            } while (!storage.isCompleted());
+        });
+
+        long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+
+    private interface Put {
+        void put(Object item) throws InterruptedException;
+    }
+
+    private interface Take {
+        Object take() throws InterruptedException;
+    }
+}
@@ -0,0 +1,313 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Bounded storage between producers and a consumer, backed by a circular array. It applies the same backpressure as the
+ * Storage of the ConditionVariableExample (a producer waits while the storage is full), but the consumer doesn't wait
+ * for the storage to fill up and doesn't clear it: drainTo hands over whatever is there, up to maxBatch items, as soon
+ * as there is at least one. Every item reaches the consumer exactly once, and an item waits for the consumer at most,
+ * not for maxCapacity - 1 other items to arrive.
+ *
+ * Two implementations:
+ * - create: any number of producers and consumers. A ReentrantLock with one condition for "not full" and one for "not
+ *   empty", like the Storage. drainTo copies the batch out under the lock and runs the consumer after releasing it, so
+ *   producers are not blocked while the batch is processed
+ * - singleProducerSingleConsumer: a lock-free fast path for exactly one producer thread and one consumer thread. The
+ *   producer is the only one writing tail and the consumer the only one writing head, so no CAS is needed: each side
+ *   publishes its cursor with a volatile write. The consumer processes the items in place and frees their slots after
+ *   the batch. A side that has to wait spins briefly, then parks until the other side unparks it
+ */
+public abstract class RingBufferStorage<T> {
+
+    /**
+     * @param capacity maximum number of items waiting for the consumer
+     */
+    public static <T> RingBufferStorage<T> create(int capacity) {
+        return new LockedRingBufferStorage<>(capacity);
+    }
+
+    /**
+     * @param capacity maximum number of items waiting for the consumer, rounded up to a power of 2
+     */
+    public static <T> RingBufferStorage<T> singleProducerSingleConsumer(int capacity) {
+        return new SpscRingBufferStorage<>(capacity);
+    }
+
+    /**
+     * Adds the item, waiting while the storage is full
+     *
+     * @throws IllegalStateException if the storage is already complete
+     */
+    public abstract void addItem(T item) throws InterruptedException;
+
+    /**
+     * Waits until there is at least one item or the storage is complete, then passes up to maxBatch items to consumer in
+     * the order they were added
+     *
+     * @return the number of items passed to consumer. 0 means the storage is complete and everything was drained
+     */
+    public abstract int drainTo(Consumer<? super T> consumer, int maxBatch) throws InterruptedException;
+
+    /**
+     * No more items will be added. The consumer still gets the items already in the storage
+     */
+    public abstract void setComplete();
+
+    public abstract boolean isCompleted();
+
+    /**
+     * Number of items waiting for the consumer. It is only a snapshot
+     */
+    public abstract int size();
+
+    public abstract int capacity();
+
+    private static void checkMaxBatch(int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+        }
+    }
+
+    private static class LockedRingBufferStorage<T> extends RingBufferStorage<T> {
+        private final Lock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private final Condition notEmpty = lock.newCondition();
+        private final Object[] items;
+        private int head;
+        private int count;
+        private boolean complete;
+
+        private LockedRingBufferStorage(int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            this.items = new Object[capacity];
+        }
+
+        @Override
+        public void addItem(T item) throws InterruptedException {
+            lock.lock();
+            try {
+                while (count == items.length && !complete) {
+                    notFull.await();
+                }
+                if (complete) {
+                    throw new IllegalStateException("Storage is complete");
+                }
+                int tail = head + count;
+                items[tail < items.length ? tail : tail - items.length] = item;
+                count++;
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int drainTo(Consumer<? super T> consumer, int maxBatch) throws InterruptedException {
+            checkMaxBatch(maxBatch);
+            Object[] batch;
+            lock.lock();
+            try {
+                while (count == 0 && !complete) {
+                    notEmpty.await();
+                }
+                if (count == 0) {
+                    return 0;
+                }
+                batch = new Object[Math.min(count, maxBatch)];
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = items[head];
+                    items[head] = null;
+                    head = head + 1 == items.length ? 0 : head + 1;
+                }
+                count -= batch.length;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            for (Object item : batch) {
+                consumer.accept((T) item);
+            }
+            return batch.length;
+        }
+
+        @Override
+        public void setComplete() {
+            lock.lock();
+            try {
+                complete = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isCompleted() {
+            lock.lock();
+            try {
+                return complete;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int capacity() {
+            return items.length;
+        }
+    }
+
+    private static class SpscRingBufferStorage<T> extends RingBufferStorage<T> {
+        //Spinning only helps if the other side runs on another core at the same time
+        private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+        private final Object[] items;
+        private final int mask;
+        //Next position to write, only written by the producer
+        private final AtomicLong tail = new AtomicLong();
+        //Next position to read, only written by the consumer
+        private final AtomicLong head = new AtomicLong();
+        private volatile Thread waitingProducer;
+        private volatile Thread waitingConsumer;
+        private volatile boolean complete;
+
+        private SpscRingBufferStorage(int capacity) {
+            if (capacity < 1 || capacity > 1 << 30) {
+                throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+            }
+            int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+            this.items = new Object[size];
+            this.mask = size - 1;
+        }
+
+        @Override
+        public void addItem(T item) throws InterruptedException {
+            if (complete) {
+                throw new IllegalStateException("Storage is complete");
+            }
+            long position = tail.get();
+            int spins = 0;
+            while (position - head.get() == items.length) {
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    //Announce that we are going to park before checking again, so the consumer can't free a slot
+                    //between our last check and the park without seeing us
+                    waitingProducer = Thread.currentThread();
+                    if (position - head.get() == items.length) {
+                        LockSupport.park(this);
+                    }
+                    waitingProducer = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+            items[(int) position & mask] = item;
+            tail.set(position + 1);
+
+            Thread consumer = waitingConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int drainTo(Consumer<? super T> consumer, int maxBatch) throws InterruptedException {
+            checkMaxBatch(maxBatch);
+            long position = head.get();
+            long available;
+            int spins = 0;
+            while ((available = tail.get() - position) == 0) {
+                if (complete) {
+                    //complete is set after the last add, so check tail again to not miss the last items
+                    if (tail.get() == position) {
+                        return 0;
+                    }
+                } else if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    waitingConsumer = Thread.currentThread();
+                    if (tail.get() == position && !complete) {
+                        LockSupport.park(this);
+                    }
+                    waitingConsumer = null;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+
+            //The producer can't overwrite these slots until head moves past them. If consumer throws, the items it
+            //already got are still freed
+            int batchSize = (int) Math.min(available, maxBatch);
+            int consumed = 0;
+            try {
+                while (consumed < batchSize) {
+                    int index = (int) (position + consumed) & mask;
+                    T item = (T) items[index];
+                    items[index] = null;
+                    consumed++;
+                    consumer.accept(item);
+                }
+            } finally {
+                head.set(position + consumed);
+
+                Thread producer = waitingProducer;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+            }
+            return batchSize;
+        }
+
+        @Override
+        public void setComplete() {
+            complete = true;
+            Thread consumer = waitingConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return complete;
+        }
+
+        @Override
+        public int size() {
+            long consumed = head.get();
+            return (int) Math.max(0, Math.min(tail.get() - consumed, items.length));
+        }
+
+        @Override
+        public int capacity() {
+            return items.length;
+        }
+    }
+}
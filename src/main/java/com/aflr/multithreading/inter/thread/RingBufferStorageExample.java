@@ -0,0 +1,96 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.aflr.multithreading.locking.instrumented.Percentiles;
+
+/**
+ * Same producer/consumer scenario as the ConditionVariableExample, comparing its fill-then-flush Storage with the
+ * RingBufferStorage, where the consumer drains items in batches as soon as they arrive.
+ *
+ * Every item is the System.nanoTime() at which it was produced, so the consumer can measure the end-to-end latency of
+ * each item. Two runs:
+ * - throughput: the producer adds ITEMS as fast as it can
+ * - latency: the producer adds one item every PACING_MICROS, like a real source of events. With the Storage, an item
+ *   waits until maxCapacity items have arrived (or the storage is complete) before the consumer takes them, so at this
+ *   pace its latency would be around capacity x PACING_MICROS. Its consumer clears the items without getting them, so
+ *   only its throughput can be measured, the same way as in the QueueBenchmark
+ */
+public class RingBufferStorageExample {
+    private static final int ITEMS = 1_000_000;
+    private static final int LATENCY_ITEMS = 20_000;
+    private static final long PACING_MICROS = 20;
+    private static final int CAPACITY = 1024;
+    private static final int MAX_BATCH = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(String.format("Throughput, %,d items, capacity %d", ITEMS, CAPACITY));
+        System.out.println(String.format("  %-48s %,15.0f items/sec", "ConditionVariableExample.Storage",
+                ITEMS * 1e9 / QueueBenchmark.measureStorage(CAPACITY, ITEMS)));
+        System.out.println(String.format("  %-48s %,15.0f items/sec", "RingBufferStorage.create",
+                ITEMS * 1e9 / run(RingBufferStorage.create(CAPACITY), ITEMS, 0).nanos));
+        System.out.println(String.format("  %-48s %,15.0f items/sec", "RingBufferStorage.singleProducerSingleConsumer",
+                ITEMS * 1e9 / run(RingBufferStorage.singleProducerSingleConsumer(CAPACITY), ITEMS, 0).nanos));
+
+        System.out.println(String.format("End-to-end latency, one item every %d us (Storage: ~%,d us)", PACING_MICROS,
+                CAPACITY * PACING_MICROS));
+        System.out.println(String.format("  %-48s %s", "RingBufferStorage.create",
+                run(RingBufferStorage.create(CAPACITY), LATENCY_ITEMS, PACING_MICROS)));
+        System.out.println(String.format("  %-48s %s", "RingBufferStorage.singleProducerSingleConsumer",
+                run(RingBufferStorage.singleProducerSingleConsumer(CAPACITY), LATENCY_ITEMS, PACING_MICROS)));
+    }
+
+    /**
+     * One producer adds items (waiting pacingMicros between two of them), one consumer drains them in batches
+     */
+    private static Result run(RingBufferStorage<Long> storage, int items, long pacingMicros) throws InterruptedException {
+        long[] latencies = new long[items];
+        int[] received = new int[1];
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i < items; i++) {
+                    storage.addItem(System.nanoTime());
+                    if (pacingMicros > 0) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(pacingMicros));
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            storage.setComplete();
+        });
+
+        Thread consumer = new Thread(() -> {
+            try {
+                //Process batches until the storage is complete and empty
+                while (storage.drainTo(producedAt -> latencies[received[0]++] = System.nanoTime() - producedAt,
+                        MAX_BATCH) > 0) {
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long start = System.nanoTime();
+        consumer.start();
+        producer.start();
+        producer.join();
+        consumer.join();
+        long nanos = System.nanoTime() - start;
+
+        if (received[0] != items) {
+            throw new IllegalStateException("Expected " + items + " items but the consumer got " + received[0]);
+        }
+        return new Result(nanos, latencies);
+    }
+
+    private record Result(long nanos, long[] latencies) {
+
+        @Override
+        public String toString() {
+            return Percentiles.summarizeMicros(latencies);
+        }
+    }
+}
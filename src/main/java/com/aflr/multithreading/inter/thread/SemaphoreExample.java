@@ -32,6 +32,9 @@ public class SemaphoreExample {
      * This class will help to control the locking strategy using a semaphore. At the beginning the semaphore won't have
      * any permits so any thread will be blocked after calling acquire(). Once the last thread ends processing the task.
      * The class will release all the necessary permits so that the blocked thread can continue their process.
+     *
+     * It can only be crossed once, since count is never reset. For a barrier crossed again and again, see the
+     * SenseReversingBarrier
      */
     static class Barrier {
         Semaphore semaphore = new Semaphore(0);
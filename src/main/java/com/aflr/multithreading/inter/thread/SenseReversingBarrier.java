@@ -0,0 +1,124 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reusable barrier for iterative workloads, where the same parties cross it again and again. Unlike the Barrier of the
+ * SemaphoreExample, which can only be crossed once since its count is never reset, and which takes a lock for every
+ * arrival:
+ * - Arriving is one atomic decrement of a counter. The last party to arrive resets the counter for the next round, then
+ *   reverses the sense: it increments the round number, which is what the other parties are waiting for. Since each
+ *   party waits for the round it arrived in to change, a fast party can't be released by the next round by mistake,
+ *   and the barrier can be crossed again as soon as it opens
+ * - A waiting party first spins (only if there are several cores: on a single one, the party that would release it
+ *   can't run while it spins), then parks. Before parking, it publishes its thread in the slot of its arrival index,
+ *   so that the last party only unparks the parties actually parked. Rounds that cross quickly never park anyone
+ * - The sense (the parity of the round) selects one of two arrays of slots. Parties released from a round may arrive
+ *   in the next one, with the same indexes, while the last party is still unparking the previous round: they publish
+ *   in the other array, so they can't hide a party that is still parked
+ *
+ * Unlike CyclicBarrier, waiting is not interruptible and the barrier can't break, like Phaser.arriveAndAwaitAdvance: a
+ * party that never arrives holds the others forever.
+ */
+public class SenseReversingBarrier {
+    //Spinning only helps if the last party runs on another core at the same time
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 2000 : 0;
+
+    private final int parties;
+    private final Runnable barrierAction;
+    //Parties still expected in the current round
+    private final AtomicInteger remaining;
+    private final AtomicInteger round = new AtomicInteger();
+    //Thread parked with each arrival index, one array per sense. A slot is only written by the party waiting in it
+    private final AtomicReferenceArray<Thread> parkedEven;
+    private final AtomicReferenceArray<Thread> parkedOdd;
+
+    public SenseReversingBarrier(int parties) {
+        this(parties, null);
+    }
+
+    /**
+     * @param barrierAction run by the last party to arrive, before the others are released. null for none. If it
+     *                      throws, the exception is thrown to the last party only
+     */
+    public SenseReversingBarrier(int parties, Runnable barrierAction) {
+        if (parties < 1) {
+            throw new IllegalArgumentException("parties must be positive: " + parties);
+        }
+        this.parties = parties;
+        this.barrierAction = barrierAction;
+        this.remaining = new AtomicInteger(parties);
+        this.parkedEven = new AtomicReferenceArray<>(parties);
+        this.parkedOdd = new AtomicReferenceArray<>(parties);
+    }
+
+    /**
+     * Waits until all the parties have arrived in the current round
+     *
+     * @return the arrival index, like CyclicBarrier: parties - 1 for the first party to arrive, 0 for the last one
+     */
+    public int await() {
+        int currentRound = round.get();
+        int index = remaining.decrementAndGet();
+        if (index == 0) {
+            openNextRound();
+            return 0;
+        }
+
+        for (int spins = 0; spins < SPINS; spins++) {
+            if (round.get() != currentRound) {
+                return index;
+            }
+            Thread.onSpinWait();
+        }
+
+        Thread current = Thread.currentThread();
+        AtomicReferenceArray<Thread> slots = parked(currentRound);
+        slots.set(index, current);
+        //Checked after publishing the thread: the last party either sees it and unparks it, or moved the round before
+        while (round.get() == currentRound) {
+            LockSupport.park(this);
+        }
+        //Cleared before this party can arrive again, so the slot is free when this sense comes back two rounds later
+        slots.set(index, null);
+        return index;
+    }
+
+    private void openNextRound() {
+        try {
+            if (barrierAction != null) {
+                barrierAction.run();
+            }
+        } finally {
+            //Even if the action failed. Reset before the round moves: the released parties may arrive right away
+            remaining.set(parties);
+            AtomicReferenceArray<Thread> slots = parked(round.getAndIncrement());
+            for (int i = 1; i < parties; i++) {
+                Thread thread = slots.get(i);
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the slots of the sense of the given round
+     */
+    private AtomicReferenceArray<Thread> parked(int round) {
+        return (round & 1) == 0 ? parkedEven : parkedOdd;
+    }
+
+    public int getParties() {
+        return parties;
+    }
+
+    /**
+     * Number of rounds completed so far
+     */
+    public int getRound() {
+        return round.get();
+    }
+}
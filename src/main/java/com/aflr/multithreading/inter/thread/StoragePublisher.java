@@ -0,0 +1,148 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flow.Publisher front-end of the Storage of the ConditionVariableExample, for reactive consumers. The consumer of the
+ * ConditionVariableExample is a thread looping on clearQueue, parked on the storage whenever it is not full. Here no
+ * thread waits on the storage at all: delivery is driven by the demand of the subscribers and by the storage telling
+ * us that items arrived.
+ *
+ * - Every subscriber takes its own items from the storage (work distribution, not broadcast): each item goes to exactly
+ *   one subscriber
+ * - A subscription is drained by a task submitted to the executor, only when it has demand and there may be something
+ *   to deliver: after request(n), after an item was added and once the storage is complete. The task takes at most as
+ *   many items as the subscriber has asked for with one drainTo, i.e. one lock acquisition per batch and not per item,
+ *   and loops until it runs out of demand or items. Then it returns and gives its thread back to the executor
+ * - Signals for a subscription that is already being drained only increment a counter that makes the running task loop
+ *   once more, so a subscription is drained by one task at a time and the Flow signals it gets are serial
+ *
+ * Many subscribers can therefore share a small pool or a virtual-thread-per-task executor. A storage feeds a single
+ * publisher, since the publisher registers itself as the items listener of the storage.
+ */
+public class StoragePublisher implements Flow.Publisher<Object> {
+    private final ConditionVariableExample.Storage storage;
+    private final Executor executor;
+    private final List<StorageSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public StoragePublisher(ConditionVariableExample.Storage storage, Executor executor) {
+        this.storage = storage;
+        this.executor = executor;
+        storage.setItemsListener(this::itemsAvailable);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        StorageSubscription subscription = new StorageSubscription(subscriber);
+        subscriptions.add(subscription);
+        //onSubscribe is sent by the drain task too, so that it can't run concurrently with the first onNext
+        subscription.signal();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Runs on the producer thread after every item and once the storage is complete: only wakes up the subscriptions
+     * that can take something
+     */
+    private void itemsAvailable() {
+        boolean completed = storage.isCompleted();
+        for (StorageSubscription subscription : subscriptions) {
+            if (completed || subscription.demand.get() > 0) {
+                subscription.signal();
+            }
+        }
+    }
+
+    private class StorageSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Object> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        //Signals received since the drain task started. The task is only submitted by the signal that moves it from 0
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        //Only accessed by the drain task
+        private boolean subscribed;
+        private volatile boolean cancelled;
+        private volatile Throwable requestError;
+
+        private StorageSubscription(Flow.Subscriber<? super Object> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("The number of requested items must be positive: " + n);
+            } else {
+                //Demand saturates at Long.MAX_VALUE, which means unbounded
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int signals = pendingSignals.get();
+            do {
+                try {
+                    drain();
+                } catch (Throwable e) {
+                    //The subscriber broke the Flow contract by throwing: it won't get anything else
+                    cancel();
+                }
+                signals = pendingSignals.addAndGet(-signals);
+            } while (signals != 0);
+        }
+
+        private void drain() {
+            if (!subscribed) {
+                subscribed = true;
+                subscriber.onSubscribe(this);
+            }
+            while (!cancelled) {
+                Throwable error = requestError;
+                if (error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                    return;
+                }
+                long requested = demand.get();
+                if (requested > 0) {
+                    int delivered = storage.drainTo(subscriber::onNext, (int) Math.min(requested, Integer.MAX_VALUE));
+                    if (delivered > 0) {
+                        //Unbounded demand stays unbounded, even if it became so since it was read
+                        demand.accumulateAndGet(delivered,
+                                (current, taken) -> current == Long.MAX_VALUE ? current : current - taken);
+                        continue;
+                    }
+                }
+                //Checked after drainTo found nothing: the items added before setComplete are delivered first
+                if (storage.isCompleted() && storage.getQueueDepth() == 0) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.aflr.multithreading.inter.thread;
+
+import java.util.concurrent.Flow;
+
+/**
+ * Flow.Subscriber front-end of the Storage of the ConditionVariableExample, for reactive producers: adds the items of an
+ * upstream Flow.Publisher to the storage and completes it when the publisher completes or fails.
+ *
+ * It asks the publisher for batchSize items at a time and for the next batch once the current one has been added, so
+ * the publisher never holds more than batchSize items for it. Adding an item waits while the storage is backpressured,
+ * which holds back the thread delivering onNext: the storage's backpressure reaches the publisher as demand that is not
+ * renewed.
+ */
+public class StorageSubscriber implements Flow.Subscriber<Object> {
+    private final ConditionVariableExample.Storage storage;
+    private final int batchSize;
+    //Only accessed by the thread delivering the signals, which are serial
+    private Flow.Subscription subscription;
+    private int remainingInBatch;
+    private volatile Throwable error;
+
+    public StorageSubscriber(ConditionVariableExample.Storage storage, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.storage = storage;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            //A storage takes a single upstream publisher
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        storage.setProcessing();
+        remainingInBatch = batchSize;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(Object item) {
+        try {
+            storage.addItem(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+        if (--remainingInBatch == 0) {
+            remainingInBatch = batchSize;
+            subscription.request(batchSize);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        storage.setComplete();
+    }
+
+    @Override
+    public void onComplete() {
+        storage.setComplete();
+    }
+
+    /**
+     * @return why the upstream publisher stopped early, null if it completed normally or is still running
+     */
+    public Throwable getError() {
+        return error;
+    }
+}
@@ -1,5 +1,9 @@
 package com.aflr.multithreading.inter.thread.backpressure;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * When we use join the second thread has to finished for the first thread to wake up. In contrast, the wait() and
  * notify() methods allow the waiting thread to pause until worker thread has partially executed and is still active. We
@@ -7,6 +11,10 @@ package com.aflr.multithreading.inter.thread.backpressure;
  * execution of that thread is suspended until another thread calls notify() on that same object.
  *
  * We can use any object as a condition variable using wait and notify
+ *
+ * A virtual thread that sleeps or waits inside a synchronized block is pinned to its carrier thread on JDK 21, so
+ * SharedClass must not be used from virtual threads. ReentrantLockSharedClass does the same with a ReentrantLock and a
+ * Condition, which let the virtual thread unmount while it waits (see VirtualThreadPinningCheck)
  */
 public class NotifyAndWaitExample {
     public static void main(String[] args) {
@@ -66,7 +74,7 @@ public class NotifyAndWaitExample {
         notifier.start();
     }
 
-    static class SharedClass {
+    public static class SharedClass {
         private boolean isComplete;
 
         public void waitUntilComplete() throws InterruptedException {
@@ -93,4 +101,43 @@ public class NotifyAndWaitExample {
             System.out.println(Thread.currentThread().getName() + " completes");
         }
     }
+
+    /**
+     * Same as SharedClass with the await/signal of a Condition instead of wait/notify on the monitor
+     */
+    public static class ReentrantLockSharedClass {
+        private final Lock lock = new ReentrantLock();
+        private final Condition completed = lock.newCondition();
+        private boolean isComplete;
+
+        public void waitUntilComplete() throws InterruptedException {
+            System.out.println(Thread.currentThread().getName() + " executing waitUntilComplete() ...");
+            lock.lock();
+            try {
+                System.out.println(Thread.currentThread().getName() + " acquired the lock");
+                Thread.sleep(2000);
+                System.out.println(Thread.currentThread().getName() + " entering the WAITING state");
+                while (!isComplete) {
+                    completed.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+            System.out.println(Thread.currentThread().getName() + " completes");
+        }
+
+        public void complete() {
+            System.out.println(Thread.currentThread().getName() + " executing complete() ...");
+            lock.lock();
+            try {
+                System.out.println(Thread.currentThread().getName() + " acquired the lock");
+                System.out.println(Thread.currentThread().getName() + " notifying WAITING thread");
+                isComplete = true;
+                completed.signal();
+            } finally {
+                lock.unlock();
+            }
+            System.out.println(Thread.currentThread().getName() + " completes");
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.aflr.multithreading.inter.thread.pipeline;
+
+/**
+ * One stage of a RingPipeline. It runs on its own thread and gets the events in sequence order.
+ */
+@FunctionalInterface
+public interface EventHandler<E> {
+
+    /**
+     * @param event      the slot of the ring. It may be modified for the next stages, but not kept: the slot is reused
+     *                   once every stage has processed it
+     * @param sequence   position of the event in the stream
+     * @param endOfBatch true for the last event available right now, e.g. to flush what was accumulated
+     */
+    void onEvent(E event, long sequence, boolean endOfBatch) throws Exception;
+}
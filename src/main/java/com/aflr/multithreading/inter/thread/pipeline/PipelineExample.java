@@ -0,0 +1,168 @@
+package com.aflr.multithreading.inter.thread.pipeline;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import com.aflr.multithreading.locking.instrumented.Percentiles;
+
+/**
+ * A producer followed by three processing steps (validate -> price -> record), built twice:
+ * - as a chain of locked queues, the way the ConditionVariableExample would do it: every step is a thread reading
+ *   from one ArrayBlockingQueue and writing to the next one, so each hop takes a lock and every event is a new object
+ * - as a RingPipeline with each wait strategy: one ring of reused slots, each step is a stage behind the previous one
+ *
+ * Each setup runs twice: as fast as possible (throughput) and with one event every PACING_MICROS (end-to-end latency,
+ * from the producer to the last step). On a machine with fewer cores than threads, busy-spin is slow since the spinning
+ * threads take the CPU away from the ones doing the work.
+ */
+public class PipelineExample {
+    private static final int EVENTS = 1_000_000;
+    private static final int LATENCY_EVENTS = 20_000;
+    private static final long PACING_MICROS = 20;
+    private static final int CAPACITY = 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(String.format("%,d events for throughput, %,d events paced every %d us for latency", EVENTS,
+                LATENCY_EVENTS, PACING_MICROS));
+        System.out.println(String.format("  %-25s %,12.0f events/sec  %s", "ArrayBlockingQueue chain",
+                EVENTS * 1e9 / runQueueChain(EVENTS, 0).nanos, runQueueChain(LATENCY_EVENTS, PACING_MICROS)));
+        for (WaitStrategy waitStrategy : List.of(WaitStrategy.busySpin(), WaitStrategy.yielding(), WaitStrategy.blocking())) {
+            System.out.println(String.format("  %-25s %,12.0f events/sec  %s", "RingPipeline " + waitStrategy,
+                    EVENTS * 1e9 / runPipeline(waitStrategy, EVENTS, 0).nanos,
+                    runPipeline(waitStrategy, LATENCY_EVENTS, PACING_MICROS)));
+        }
+    }
+
+    /**
+     * Mutable slot of the ring. Each step fills in its own fields
+     */
+    static class OrderEvent {
+        long producedAt;
+        int quantity;
+        int unitPrice;
+        boolean valid;
+        long totalPrice;
+    }
+
+    private static Result runPipeline(WaitStrategy waitStrategy, int events, long pacingMicros) throws InterruptedException {
+        long[] latencies = new long[events];
+        long[] revenue = new long[1];
+
+        RingPipeline<OrderEvent> pipeline = new RingPipeline<>(CAPACITY, OrderEvent::new, waitStrategy,
+                (event, sequence, endOfBatch) -> validate(event),
+                (event, sequence, endOfBatch) -> price(event),
+                (event, sequence, endOfBatch) -> {
+                    if (event.valid) {
+                        revenue[0] += event.totalPrice;
+                    }
+                    latencies[(int) sequence] = System.nanoTime() - event.producedAt;
+                });
+        pipeline.start();
+
+        long start = System.nanoTime();
+        long expectedRevenue = 0;
+        for (int i = 0; i < events; i++) {
+            expectedRevenue += (long) (i % 10) * (i % 1000);
+            long sequence = pipeline.next();
+            OrderEvent event = pipeline.get(sequence);
+            event.quantity = i % 10;
+            event.unitPrice = i % 1000;
+            event.producedAt = System.nanoTime();
+            pipeline.publish(sequence);
+            if (pacingMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(pacingMicros));
+            }
+        }
+        pipeline.drainAndHalt();
+        long nanos = System.nanoTime() - start;
+
+        //drainAndHalt joined the stage threads, so their writes are visible
+        if (revenue[0] != expectedRevenue) {
+            throw new IllegalStateException("Expected a revenue of " + expectedRevenue + " but got " + revenue[0]);
+        }
+        return new Result(nanos, latencies);
+    }
+
+    private static Result runQueueChain(int events, long pacingMicros) throws InterruptedException {
+        long[] latencies = new long[events];
+        long[] revenue = new long[1];
+        BlockingQueue<OrderEvent> toValidate = new ArrayBlockingQueue<>(CAPACITY);
+        BlockingQueue<OrderEvent> toPrice = new ArrayBlockingQueue<>(CAPACITY);
+        BlockingQueue<OrderEvent> toRecord = new ArrayBlockingQueue<>(CAPACITY);
+
+        Thread validator = step(toValidate, toPrice, events, PipelineExample::validate);
+        Thread pricer = step(toPrice, toRecord, events, PipelineExample::price);
+        Thread recorder = new Thread(() -> {
+            try {
+                for (int i = 0; i < events; i++) {
+                    OrderEvent event = toRecord.take();
+                    if (event.valid) {
+                        revenue[0] += event.totalPrice;
+                    }
+                    latencies[i] = System.nanoTime() - event.producedAt;
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        validator.start();
+        pricer.start();
+        recorder.start();
+
+        long start = System.nanoTime();
+        long expectedRevenue = 0;
+        for (int i = 0; i < events; i++) {
+            expectedRevenue += (long) (i % 10) * (i % 1000);
+            OrderEvent event = new OrderEvent();
+            event.quantity = i % 10;
+            event.unitPrice = i % 1000;
+            event.producedAt = System.nanoTime();
+            toValidate.put(event);
+            if (pacingMicros > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(pacingMicros));
+            }
+        }
+        recorder.join();
+        long nanos = System.nanoTime() - start;
+
+        if (revenue[0] != expectedRevenue) {
+            throw new IllegalStateException("Expected a revenue of " + expectedRevenue + " but got " + revenue[0]);
+        }
+        return new Result(nanos, latencies);
+    }
+
+    private static Thread step(BlockingQueue<OrderEvent> from, BlockingQueue<OrderEvent> to, int events,
+                               Consumer<OrderEvent> processing) {
+        return new Thread(() -> {
+            try {
+                for (int i = 0; i < events; i++) {
+                    OrderEvent event = from.take();
+                    processing.accept(event);
+                    to.put(event);
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static void validate(OrderEvent event) {
+        event.valid = event.quantity > 0 && event.unitPrice >= 0;
+    }
+
+    private static void price(OrderEvent event) {
+        event.totalPrice = event.valid ? (long) event.quantity * event.unitPrice : 0;
+    }
+
+    private record Result(long nanos, long[] latencies) {
+
+        @Override
+        public String toString() {
+            return "latency " + Percentiles.summarizeMicros(latencies);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.aflr.multithreading.inter.thread.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Processing pipeline in the style of the LMAX Disruptor: instead of one locked queue per hop (producer -> Storage ->
+ * stage A -> Storage -> stage B...), all the stages share a single ring of preallocated, mutable event slots.
+ *
+ * - The publisher claims the next sequence with next(), fills the slot returned by get(sequence) and makes it visible
+ *   with publish(sequence). Slots are created once by the event factory and reused, so there is no allocation per event
+ * - Every stage runs on its own thread and has its own Sequence: the last slot it has processed. Stage A waits for the
+ *   publisher's cursor, stage B waits for stage A's sequence and so on (sequence barriers), so B processes slot N only
+ *   after A has, and can read what A wrote into it. When a stage falls behind, it processes everything available as one
+ *   batch and publishes its sequence once
+ * - The publisher can't reuse a slot until the last stage has processed it: when the ring is full, it waits for the last
+ *   stage, which is the backpressure of the Storage without its lock
+ * - Waiting is delegated to a WaitStrategy (busy-spin, yielding or blocking). On the hot path, publishing and consuming
+ *   are plain reads and volatile writes of the sequences: no lock and no CAS, since each sequence has a single writer
+ *
+ * There must be a single publisher thread: next() is not thread-safe.
+ */
+public class RingPipeline<E> {
+    private final Object[] events;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final Sequence cursor = new Sequence();
+    private final List<Stage<E>> stages = new ArrayList<>();
+    private final BooleanSupplier halted = this::isHalted;
+    private volatile boolean running;
+    private volatile Throwable failure;
+
+    //Only used by the publisher thread
+    private long nextSequence = -1;
+    private long cachedGatingSequence = -1;
+
+    /**
+     * @param capacity     number of slots, rounded up to a power of 2
+     * @param eventFactory creates the slots, once
+     * @param waitStrategy how the publisher and the stages wait for each other
+     * @param handlers     the stages, in processing order
+     */
+    @SafeVarargs
+    public RingPipeline(int capacity, Supplier<E> eventFactory, WaitStrategy waitStrategy, EventHandler<E>... handlers) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        if (handlers.length == 0) {
+            throw new IllegalArgumentException("At least one stage is needed");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.events = new Object[size];
+        for (int i = 0; i < size; i++) {
+            events[i] = eventFactory.get();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+
+        Sequence dependency = cursor;
+        for (int i = 0; i < handlers.length; i++) {
+            Stage<E> stage = new Stage<>(this, handlers[i], dependency, "pipeline-stage-" + i);
+            stages.add(stage);
+            dependency = stage.sequence;
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (Stage<E> stage : stages) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Claims the next slot, waiting while the ring is full
+     *
+     * @return the sequence of the slot, to be filled with get and handed over with publish
+     */
+    public long next() throws InterruptedException {
+        long sequence = ++nextSequence;
+        long wrapPoint = sequence - events.length;
+        if (wrapPoint > cachedGatingSequence) {
+            //The slot still holds the event of the previous lap until the last stage is done with it
+            Sequence lastStage = stages.get(stages.size() - 1).sequence;
+            cachedGatingSequence = waitStrategy.waitFor(wrapPoint, lastStage, halted);
+            if (cachedGatingSequence < wrapPoint) {
+                nextSequence--;
+                throw new IllegalStateException("Pipeline halted", failure);
+            }
+        }
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) events[(int) sequence & mask];
+    }
+
+    /**
+     * Makes the slot visible to the first stage. Slots must be published in the order they were claimed
+     */
+    public void publish(long sequence) {
+        cursor.set(sequence);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Waits until the last stage has processed everything published, then stops the stages
+     *
+     * @throws IllegalStateException if a stage failed
+     */
+    public void drainAndHalt() throws InterruptedException {
+        Sequence lastStage = stages.get(stages.size() - 1).sequence;
+        waitStrategy.waitFor(cursor.get(), lastStage, halted);
+        halt();
+        for (Stage<E> stage : stages) {
+            stage.thread.join();
+        }
+        if (failure != null) {
+            throw new IllegalStateException("A stage failed", failure);
+        }
+    }
+
+    public boolean isHalted() {
+        return !running;
+    }
+
+    /**
+     * @return the last sequence processed by the given stage, -1 if none
+     */
+    public long getStageSequence(int stage) {
+        return stages.get(stage).sequence.get();
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    private void halt() {
+        running = false;
+        waitStrategy.signalAll();
+    }
+
+    private static class Stage<E> implements Runnable {
+        private final RingPipeline<E> pipeline;
+        private final EventHandler<E> handler;
+        private final Sequence dependency;
+        private final Sequence sequence = new Sequence();
+        private final Thread thread;
+
+        private Stage(RingPipeline<E> pipeline, EventHandler<E> handler, Sequence dependency, String name) {
+            this.pipeline = pipeline;
+            this.handler = handler;
+            this.dependency = dependency;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long nextSequence = sequence.get() + 1;
+            try {
+                while (true) {
+                    long available = pipeline.waitStrategy.waitFor(nextSequence, dependency, pipeline.halted);
+                    if (available < nextSequence) {
+                        return;
+                    }
+                    for (long current = nextSequence; current <= available; current++) {
+                        handler.onEvent(pipeline.get(current), current, current == available);
+                    }
+                    sequence.set(available);
+                    pipeline.waitStrategy.signalAll();
+                    nextSequence = available + 1;
+                }
+            } catch (Throwable e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                //Interrupted or failed, the next stages and the publisher would wait forever for this one: stop the
+                //whole pipeline
+                pipeline.failure = e;
+                pipeline.halt();
+            }
+        }
+    }
+}
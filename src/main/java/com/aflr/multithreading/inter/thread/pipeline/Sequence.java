@@ -0,0 +1,19 @@
+package com.aflr.multithreading.inter.thread.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Position of the publisher or of a stage in the ring: the highest sequence it has published or processed, -1 at the
+ * start. Each one is written by a single thread and read by the threads that depend on it, so it is padded to keep it
+ * away from the cache lines of the other sequences (see MpmcRingQueue.PaddedAtomicLong).
+ */
+public class Sequence extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+
+    @SuppressWarnings("unused")
+    private long p1, p2, p3, p4, p5, p6, p7, p8, p9, p10, p11, p12, p13, p14, p15;
+
+    public Sequence() {
+        super(-1);
+    }
+}
@@ -0,0 +1,132 @@
+package com.aflr.multithreading.inter.thread.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How a thread of a RingPipeline waits until the sequence it depends on reaches the one it needs. It trades latency
+ * for CPU:
+ * - busySpin: checks again and again. Lowest latency, but burns a whole core per waiting thread even when idle. Only for
+ *   pipelines with fewer threads than cores
+ * - yielding: spins a little, then calls Thread.yield() between checks. Lets other threads run, still keeps the core busy
+ * - blocking: spins a little, then parks on a Condition until signalled. Costs a wake-up (tens of microseconds) after an
+ *   idle period but uses no CPU while idle. The lock is only taken by threads that actually block, and by signalAll
+ *   when some thread is blocked: as long as nobody waits, publishing is a volatile read
+ */
+public abstract class WaitStrategy {
+    private static final int SPINS = 100;
+
+    public static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            @Override
+            public long waitFor(long sequence, Sequence dependency, BooleanSupplier halted) {
+                long available;
+                while ((available = dependency.get()) < sequence && !halted.getAsBoolean()) {
+                    Thread.onSpinWait();
+                }
+                return available;
+            }
+
+            @Override
+            public String toString() {
+                return "busy-spin";
+            }
+        };
+    }
+
+    public static WaitStrategy yielding() {
+        return new WaitStrategy() {
+            @Override
+            public long waitFor(long sequence, Sequence dependency, BooleanSupplier halted) {
+                long available;
+                int spins = 0;
+                while ((available = dependency.get()) < sequence && !halted.getAsBoolean()) {
+                    if (spins < SPINS) {
+                        spins++;
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+                return available;
+            }
+
+            @Override
+            public String toString() {
+                return "yielding";
+            }
+        };
+    }
+
+    public static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+
+    /**
+     * Waits until dependency reaches sequence or the pipeline is halted
+     *
+     * @return the value of dependency, which may be higher than sequence (so the caller can process a whole batch), or
+     * lower if the pipeline was halted
+     */
+    public abstract long waitFor(long sequence, Sequence dependency, BooleanSupplier halted) throws InterruptedException;
+
+    /**
+     * Called after a sequence moved forward or the pipeline was halted, to wake up the threads blocked in waitFor
+     */
+    public void signalAll() {
+    }
+
+    private static class BlockingWaitStrategy extends WaitStrategy {
+        private final Lock lock = new ReentrantLock();
+        private final Condition sequenceMoved = lock.newCondition();
+        private final AtomicInteger blockedThreads = new AtomicInteger();
+
+        @Override
+        public long waitFor(long sequence, Sequence dependency, BooleanSupplier halted) throws InterruptedException {
+            long available;
+            for (int spins = 0; spins < SPINS; spins++) {
+                if ((available = dependency.get()) >= sequence || halted.getAsBoolean()) {
+                    return available;
+                }
+                Thread.onSpinWait();
+            }
+
+            lock.lock();
+            try {
+                //Announced before checking again: a signalAll that moved the sequence after this increment sees it and
+                //takes the lock, so it can't run between our check and the await
+                blockedThreads.incrementAndGet();
+                try {
+                    while ((available = dependency.get()) < sequence && !halted.getAsBoolean()) {
+                        sequenceMoved.await();
+                    }
+                } finally {
+                    blockedThreads.decrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAll() {
+            if (blockedThreads.get() > 0) {
+                lock.lock();
+                try {
+                    sequenceMoved.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "blocking";
+        }
+    }
+}
@@ -2,12 +2,16 @@ package com.aflr.multithreading.locking;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
 Using Coarse-Grained locking strategy we have only one lock for all the class.
 So if many thread use the same lock (object) they will wait until the first thread ends using the method to execute any other synchronized method.
 
 COMPARE THIS TO FineGrained
+
+The synchronized methods pin a virtual thread to its carrier while it sleeps: use ReentrantLockSharedClass from virtual threads.
 * */
 public class CoarseGrained {
     public static void main(String[] args) throws InterruptedException {
@@ -26,7 +30,7 @@ public class CoarseGrained {
         System.out.println("Time elapsed: " + (end - init) / 1000);
     }
 
-    static class SharedClass {
+    public static class SharedClass {
         private Object dbConnection;
         private List<Object> tasks;
 
@@ -54,5 +58,42 @@ public class CoarseGrained {
         }
 
     }
-}
 
+    /**
+     * Same coarse-grained strategy with a single ReentrantLock for the whole class
+     */
+    public static class ReentrantLockSharedClass {
+        private final Lock lock = new ReentrantLock();
+        private Object dbConnection;
+        private List<Object> tasks;
+
+        public ReentrantLockSharedClass() {
+            dbConnection = new Object();
+            tasks = new ArrayList<>();
+        }
+
+        public Object getObjectFromDB() {
+            lock.lock();
+            try {
+                Thread.sleep(2000);
+                return dbConnection;
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void addTask(Object task) {
+            lock.lock();
+            try {
+                Thread.sleep(2000);
+                tasks.add(task);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.aflr.multithreading.locking;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Using Fine-Grained locking strategy we lock on every shared resource individually which is equivalent to creating a
@@ -10,6 +12,9 @@ import java.util.List;
  * parallelism and less contention.
  *
  * COMPARE THIS TO CoarseGrained
+ *
+ * Like the synchronized methods of the CoarseGrained, the synchronized blocks pin a virtual thread to its carrier while it
+ * sleeps: ReentrantLockSharedClass has one ReentrantLock per resource instead.
  */
 public class FineGrained {
     public static void main(String[] args) throws InterruptedException {
@@ -30,7 +35,7 @@ public class FineGrained {
 
 
 
-    static class SharedClass {
+    public static class SharedClass {
         private Object dbConnection;
         private List<Object> tasks;
 
@@ -63,5 +68,44 @@ public class FineGrained {
         }
 
     }
-}
 
+    /**
+     * One ReentrantLock per resource. Unlike SharedClass, whose addTask is also synchronized on the instance, nothing
+     * else is locked
+     */
+    public static class ReentrantLockSharedClass {
+        private final Lock dbConnectionLock = new ReentrantLock();
+        private final Lock tasksLock = new ReentrantLock();
+        private Object dbConnection;
+        private List<Object> tasks;
+
+        public ReentrantLockSharedClass() {
+            dbConnection = new Object();
+            tasks = new ArrayList<>();
+        }
+
+        public Object getObjectFromDB() {
+            dbConnectionLock.lock();
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                dbConnectionLock.unlock();
+            }
+            return dbConnection;
+        }
+
+        public void addTask(Object task) {
+            tasksLock.lock();
+            try {
+                Thread.sleep(2000);
+                tasks.add(task);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                tasksLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drop-in Lock decorator that records wait time, hold time, queue length and contention rate in a LockStats, and emits
+ * the LockWait/LockHold JFR events.
+ *
+ * An acquisition of a non-fair exclusive lock first tries delegate.tryLock(). If it succeeds, the only overhead is
+ * reading the clock for the hold time. Only when it fails the acquisition is counted as contended and its wait is
+ * measured. That fast path must not change which thread gets the lock, so it is skipped:
+ * - by fair locks, where tryLock() would let the thread jump the queue
+ * - by shared locks: the tryLock() of a ReentrantReadWriteLock read lock ignores the writer queued first, which its
+ *   lock() lets in, so readers calling it could starve the writer
+ * Those always take the measured path, and an acquisition counts as contended when the lock was busy as it started (for
+ * the ReentrantLock and ReentrantReadWriteLock delegates: held by another thread in a mode that excludes it, or with
+ * threads queued for a fair lock) or when it waited at least CONTENDED_THRESHOLD_NANOS.
+ *
+ * A reentrant acquisition by a thread already holding the lock goes straight to the delegate: only the outermost
+ * acquisition and hold are recorded.
+ *
+ * The hold time of an exclusive lock is kept in plain fields, safe because only the owner touches them. A shared lock
+ * (the read lock of a ReadWriteLock) can be held by many threads at once, so it keeps the hold time per thread.
+ */
+public class InstrumentedLock implements Lock {
+    static final long CONTENDED_THRESHOLD_NANOS = 1_000;
+
+    private final Lock delegate;
+    private final LockStats stats;
+    private final boolean shared;
+    private final boolean fair;
+    //true if an acquisition by a thread not holding the lock would have to wait. null if the delegate can't tell
+    private final BooleanSupplier busy;
+
+    //exclusive locks only, guarded by the delegate itself. A thread that doesn't hold the lock may read a stale owner, but
+    //never itself: only the owner sets it to itself, and clears it before releasing
+    private Thread owner;
+    private int holdCount;
+    private long acquiredAtNanos;
+    private LockEvents.LockHoldEvent holdEvent;
+
+    //shared locks only
+    private final ThreadLocal<HoldState> sharedHoldState;
+
+    /**
+     * Wraps an exclusive lock. A ReentrantLock is checked for fairness
+     */
+    public InstrumentedLock(Lock delegate, String name) {
+        this(delegate, new LockStats(name), false, delegate instanceof ReentrantLock reentrantLock && reentrantLock.isFair(),
+                delegate instanceof ReentrantLock reentrantLock
+                        ? () -> reentrantLock.isLocked() || reentrantLock.hasQueuedThreads()
+                        : null);
+    }
+
+    InstrumentedLock(Lock delegate, LockStats stats, boolean shared, boolean fair, BooleanSupplier busy) {
+        this.delegate = delegate;
+        this.stats = stats;
+        this.shared = shared;
+        this.fair = fair;
+        this.busy = busy;
+        this.sharedHoldState = shared ? ThreadLocal.withInitial(HoldState::new) : null;
+    }
+
+    public LockStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void lock() {
+        if (heldByCurrentThread()) {
+            delegate.lock();
+        } else if (tryFastPath()) {
+            stats.uncontendedAcquisition();
+        } else {
+            boolean busyAtStart = isBusy();
+            LockEvents.LockWaitEvent waitEvent = startWaiting();
+            long startNanos = System.nanoTime();
+            delegate.lock();
+            stopWaiting(waitEvent, startNanos, busyAtStart, true);
+        }
+        acquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        if (heldByCurrentThread()) {
+            delegate.lockInterruptibly();
+        } else if (tryFastPath()) {
+            stats.uncontendedAcquisition();
+        } else {
+            boolean busyAtStart = isBusy();
+            LockEvents.LockWaitEvent waitEvent = startWaiting();
+            long startNanos = System.nanoTime();
+            try {
+                delegate.lockInterruptibly();
+            } catch (InterruptedException e) {
+                stopWaiting(waitEvent, startNanos, busyAtStart, false);
+                throw e;
+            }
+            stopWaiting(waitEvent, startNanos, busyAtStart, true);
+        }
+        acquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+        boolean reentrant = heldByCurrentThread();
+        if (!delegate.tryLock()) {
+            return false;
+        }
+        if (!reentrant) {
+            stats.uncontendedAcquisition();
+        }
+        acquired();
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        if (heldByCurrentThread()) {
+            if (!delegate.tryLock(time, unit)) {
+                return false;
+            }
+            acquired();
+            return true;
+        }
+        if (tryFastPath()) {
+            stats.uncontendedAcquisition();
+            acquired();
+            return true;
+        }
+
+        boolean busyAtStart = isBusy();
+        LockEvents.LockWaitEvent waitEvent = startWaiting();
+        long startNanos = System.nanoTime();
+        boolean acquired = false;
+        try {
+            acquired = delegate.tryLock(time, unit);
+        } finally {
+            stopWaiting(waitEvent, startNanos, busyAtStart, acquired);
+        }
+        if (acquired) {
+            acquired();
+        }
+        return acquired;
+    }
+
+    @Override
+    public void unlock() {
+        if (shared) {
+            delegate.unlock();
+            released();
+        } else if (owner == Thread.currentThread()) {
+            //The hold fields are recorded before the delegate is released: right after, another thread can acquire it
+            //and overwrite them
+            released();
+            delegate.unlock();
+        } else {
+            //Not held by this thread: the delegate throws IllegalMonitorStateException and there is nothing to record
+            delegate.unlock();
+        }
+    }
+
+    @Override
+    public Condition newCondition() {
+        return new InstrumentedCondition(delegate.newCondition());
+    }
+
+    /**
+     * Reentrant acquisitions are not recorded: they never wait, and the hold they are part of is already being timed
+     */
+    private boolean heldByCurrentThread() {
+        return shared ? sharedHoldState.get().holdCount > 0 : owner == Thread.currentThread();
+    }
+
+    /**
+     * Only for the locks where a tryLock() gets the lock in the same cases as a lock() would, see the class comment
+     */
+    private boolean tryFastPath() {
+        return !fair && !shared && delegate.tryLock();
+    }
+
+    private boolean isBusy() {
+        return busy != null && busy.getAsBoolean();
+    }
+
+    private LockEvents.LockWaitEvent startWaiting() {
+        int queueLength = stats.startWaiting();
+        if (!LockEvents.LOCK_WAIT_EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        LockEvents.LockWaitEvent waitEvent = new LockEvents.LockWaitEvent();
+        waitEvent.queueLength = queueLength;
+        waitEvent.begin();
+        return waitEvent;
+    }
+
+    /**
+     * @param busyAtStart whether the lock looked busy before waiting. Only used by the fair and shared locks: for the
+     *                    others, the fast path failing already means the acquisition was contended
+     */
+    private void stopWaiting(LockEvents.LockWaitEvent waitEvent, long startNanos, boolean busyAtStart, boolean acquired) {
+        long waitNanos = System.nanoTime() - startNanos;
+        if ((fair || shared) && acquired && !busyAtStart && waitNanos < CONTENDED_THRESHOLD_NANOS) {
+            stats.cancelWaiting();
+        } else {
+            stats.stopWaiting(waitNanos, acquired);
+        }
+
+        if (waitEvent != null) {
+            waitEvent.end();
+            if (waitEvent.shouldCommit()) {
+                waitEvent.lockName = stats.getName();
+                waitEvent.acquired = acquired;
+                waitEvent.commit();
+            }
+        }
+    }
+
+    private void acquired() {
+        if (shared) {
+            HoldState holdState = sharedHoldState.get();
+            if (holdState.holdCount++ == 0) {
+                holdState.acquiredAtNanos = System.nanoTime();
+                holdState.holdEvent = beginHoldEvent();
+            }
+        } else if (holdCount++ == 0) {
+            owner = Thread.currentThread();
+            acquiredAtNanos = System.nanoTime();
+            holdEvent = beginHoldEvent();
+        }
+    }
+
+    private void released() {
+        if (shared) {
+            HoldState holdState = sharedHoldState.get();
+            if (holdState.holdCount == 0) {
+                //not acquired through this decorator
+                return;
+            }
+            if (--holdState.holdCount == 0) {
+                stats.released(System.nanoTime() - holdState.acquiredAtNanos);
+                commitHoldEvent(holdState.holdEvent);
+                holdState.holdEvent = null;
+            }
+        } else {
+            if (holdCount == 0) {
+                return;
+            }
+            if (--holdCount == 0) {
+                owner = null;
+                stats.released(System.nanoTime() - acquiredAtNanos);
+                commitHoldEvent(holdEvent);
+                holdEvent = null;
+            }
+        }
+    }
+
+    private static LockEvents.LockHoldEvent beginHoldEvent() {
+        if (!LockEvents.LOCK_HOLD_EVENT_TYPE.isEnabled()) {
+            return null;
+        }
+        LockEvents.LockHoldEvent event = new LockEvents.LockHoldEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commitHoldEvent(LockEvents.LockHoldEvent event) {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.lockName = stats.getName();
+                event.commit();
+            }
+        }
+    }
+
+    private static final class HoldState {
+        private int holdCount;
+        private long acquiredAtNanos;
+        private LockEvents.LockHoldEvent holdEvent;
+    }
+
+    /**
+     * await() releases the lock completely and acquires it again before returning, so the time spent waiting on the
+     * condition is not counted as hold time: the hold ends before awaiting and a new one starts after
+     */
+    private class InstrumentedCondition implements Condition {
+        private final Condition delegateCondition;
+
+        private InstrumentedCondition(Condition delegateCondition) {
+            this.delegateCondition = delegateCondition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            int savedHoldCount = beforeAwait();
+            try {
+                delegateCondition.await();
+            } finally {
+                afterAwait(savedHoldCount);
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            int savedHoldCount = beforeAwait();
+            try {
+                delegateCondition.awaitUninterruptibly();
+            } finally {
+                afterAwait(savedHoldCount);
+            }
+        }
+
+        @Override
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            int savedHoldCount = beforeAwait();
+            try {
+                return delegateCondition.awaitNanos(nanosTimeout);
+            } finally {
+                afterAwait(savedHoldCount);
+            }
+        }
+
+        @Override
+        public boolean await(long time, TimeUnit unit) throws InterruptedException {
+            int savedHoldCount = beforeAwait();
+            try {
+                return delegateCondition.await(time, unit);
+            } finally {
+                afterAwait(savedHoldCount);
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            int savedHoldCount = beforeAwait();
+            try {
+                return delegateCondition.awaitUntil(deadline);
+            } finally {
+                afterAwait(savedHoldCount);
+            }
+        }
+
+        @Override
+        public void signal() {
+            delegateCondition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            delegateCondition.signalAll();
+        }
+
+        /**
+         * @return the hold count to restore after the await, 0 if the lock is not held by this thread: the delegate
+         * condition then throws IllegalMonitorStateException and nothing is recorded
+         */
+        private int beforeAwait() {
+            if (owner != Thread.currentThread()) {
+                return 0;
+            }
+            int savedHoldCount = holdCount;
+            if (savedHoldCount > 0) {
+                holdCount = 1;
+                released();
+            }
+            return savedHoldCount;
+        }
+
+        private void afterAwait(int savedHoldCount) {
+            if (savedHoldCount > 0) {
+                acquired();
+                holdCount = savedHoldCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.aflr.multithreading.locking.read.write.lock.ReentrantLockExample;
+import com.aflr.multithreading.locking.read.write.lock.ReentrantReadWriteLockExample;
+import com.aflr.multithreading.locking.read.write.lock.StampedLockExample;
+
+import jdk.jfr.Recording;
+
+/**
+ * Runs the workload of the lock examples (1 writer, 7 readers) with instrumented locks and prints what they saw: how
+ * often readers had to wait, for how long, how many threads queued up and how long the lock was held, so a slow
+ * example can be explained with numbers instead of guesses.
+ *
+ * A JFR recording runs at the same time and is dumped at the end. Open it in JDK Mission Control and look for the Lock
+ * Wait / Lock Hold events (or run: jfr print --events com.aflr.LockWait file.jfr).
+ *
+ * The synchronized blocks and the Semaphore of the other examples are not Locks, so they can't be wrapped. JFR already
+ * records the contended synchronized blocks as jdk.JavaMonitorEnter events.
+ */
+public class InstrumentedLockExample {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Path recordingFile = Files.createTempFile("instrumented-locks", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.aflr.LockWait").withThreshold(Duration.ofMillis(1)).withStackTrace();
+            recording.enable("com.aflr.LockHold").withThreshold(Duration.ofMillis(1)).withStackTrace();
+            recording.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ofMillis(1));
+            recording.start();
+
+            InstrumentedLock lock = new InstrumentedLock(new ReentrantLock(), "ReentrantLockExample.inventory");
+            long lockReadingTime = StampedLockExample.measureReading(new ReentrantLockExample.InventoryDatabase(lock));
+            System.out.println(String.format("ReentrantLock: reading took %d ms", lockReadingTime));
+            System.out.println(lock.getStats());
+
+            InstrumentedReadWriteLock readWriteLock =
+                    new InstrumentedReadWriteLock(new ReentrantReadWriteLock(), "ReentrantReadWriteLockExample.inventory");
+            long readWriteLockReadingTime =
+                    StampedLockExample.measureReading(new ReentrantReadWriteLockExample.InventoryDatabase(readWriteLock));
+            System.out.println(String.format("ReentrantReadWriteLock: reading took %d ms", readWriteLockReadingTime));
+            System.out.println(readWriteLock.getReadStats());
+            System.out.println(readWriteLock.getWriteStats());
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        System.out.println("JFR recording: " + recordingFile);
+    }
+}
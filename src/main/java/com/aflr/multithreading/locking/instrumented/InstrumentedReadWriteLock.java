@@ -0,0 +1,53 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drop-in ReadWriteLock decorator. The read and write locks are InstrumentedLocks with their own LockStats, named
+ * "name.read" and "name.write", so a read-heavy lock and its writer can be told apart.
+ */
+public class InstrumentedReadWriteLock implements ReadWriteLock {
+    private final InstrumentedLock readLock;
+    private final InstrumentedLock writeLock;
+
+    public InstrumentedReadWriteLock(ReadWriteLock delegate, String name) {
+        boolean fair = false;
+        BooleanSupplier readBusy = null;
+        BooleanSupplier writeBusy = null;
+        if (delegate instanceof ReentrantReadWriteLock reentrantReadWriteLock) {
+            boolean fairLock = reentrantReadWriteLock.isFair();
+            fair = fairLock;
+            //A reader waits for a writer holding the lock (holding the write lock itself lets it read) and, if fair, for
+            //any queued thread. A non-fair reader also waits for a writer queued first, which can't be told apart from
+            //queued readers about to run: that wait is caught by CONTENDED_THRESHOLD_NANOS instead
+            readBusy = () -> (reentrantReadWriteLock.isWriteLocked() && !reentrantReadWriteLock.isWriteLockedByCurrentThread())
+                    || (fairLock && reentrantReadWriteLock.hasQueuedThreads());
+            //Only used if fair: a non-fair writer takes the tryLock() fast path
+            writeBusy = () -> reentrantReadWriteLock.isWriteLocked() || reentrantReadWriteLock.getReadLockCount() > 0
+                    || reentrantReadWriteLock.hasQueuedThreads();
+        }
+        this.readLock = new InstrumentedLock(delegate.readLock(), new LockStats(name + ".read"), true, fair, readBusy);
+        this.writeLock = new InstrumentedLock(delegate.writeLock(), new LockStats(name + ".write"), false, fair, writeBusy);
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    public LockStats getReadStats() {
+        return readLock.getStats();
+    }
+
+    public LockStats getWriteStats() {
+        return writeLock.getStats();
+    }
+}
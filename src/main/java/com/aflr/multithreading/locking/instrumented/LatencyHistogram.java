@@ -0,0 +1,66 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Bucket i counts the durations whose highest set bit is i (from 2^i to
+ * 2^(i+1) - 1 ns), so recording is a numberOfLeadingZeros plus a LongAdder increment: no lock, no allocation and no
+ * CAS loop on a shared counter, since LongAdder spreads contended increments over several cells. Percentiles are
+ * therefore approximate: they return the upper bound of the bucket, at most 2 times the real value.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = Percentiles.BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets[Percentiles.bucketOf(value)].increment();
+        count.increment();
+        totalNanos.add(value);
+        if (value > maxNanos.get()) {
+            maxNanos.accumulate(value);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMeanNanos() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / samples;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return upper bound (in ns) of the bucket containing that percentile, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+        }
+        return Percentiles.ofBuckets(snapshot, percentile);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%,d mean=%,dns p50<=%,dns p99<=%,dns p99.9<=%,dns max=%,dns", getCount(), getMeanNanos(),
+                getPercentileNanos(50), getPercentileNanos(99), getPercentileNanos(99.9), getMaxNanos());
+    }
+}
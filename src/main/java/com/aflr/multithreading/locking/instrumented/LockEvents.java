@@ -0,0 +1,54 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Custom JFR events emitted by the instrumented locks, so lock hot spots show up in flight recordings next to the
+ * built-in jdk.JavaMonitorEnter events of the synchronized blocks. Both have a default threshold: only waits and holds
+ * longer than it are recorded, which keeps the overhead negligible when the locks behave. It can be changed in the
+ * recording settings, e.g. -XX:StartFlightRecording:com.aflr.LockWait#threshold=0ms
+ */
+final class LockEvents {
+    static final EventType LOCK_WAIT_EVENT_TYPE = EventType.getEventType(LockWaitEvent.class);
+    static final EventType LOCK_HOLD_EVENT_TYPE = EventType.getEventType(LockHoldEvent.class);
+
+    private LockEvents() {
+    }
+
+    @Name("com.aflr.LockWait")
+    @Label("Lock Wait")
+    @Description("A thread had to wait to acquire an instrumented lock")
+    @Category({"Java Application", "Locks"})
+    @Threshold("1 ms")
+    @StackTrace
+    static class LockWaitEvent extends Event {
+        @Label("Lock")
+        String lockName;
+
+        @Label("Queue Length")
+        @Description("Threads waiting for the lock when this one started waiting, including itself")
+        int queueLength;
+
+        @Label("Acquired")
+        @Description("False if the wait timed out or was interrupted")
+        boolean acquired;
+    }
+
+    @Name("com.aflr.LockHold")
+    @Label("Lock Hold")
+    @Description("An instrumented lock was held by a thread")
+    @Category({"Java Application", "Locks"})
+    @Threshold("10 ms")
+    @StackTrace
+    static class LockHoldEvent extends Event {
+        @Label("Lock")
+        String lockName;
+    }
+}
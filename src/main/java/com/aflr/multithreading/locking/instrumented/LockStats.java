@@ -0,0 +1,110 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one instrumented lock: how long threads wait to get it, how long they hold it, how many of them are
+ * waiting for it and how often an acquisition has to wait at all (contention rate). Everything is updated without
+ * locks.
+ */
+public class LockStats {
+    private final String name;
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();
+    private final AtomicInteger queueLength = new AtomicInteger();
+    private final LongAccumulator maxQueueLength = new LongAccumulator(Math::max, 0);
+
+    public LockStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Time spent in lock()/lockInterruptibly()/tryLock(timeout) by the acquisitions that could not get the lock
+     * immediately
+     */
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Time between acquiring the lock and releasing it (for a reentrant lock, between the outermost lock and unlock)
+     */
+    public LatencyHistogram getHoldTime() {
+        return holdTime;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getContendedAcquisitions() {
+        return contendedAcquisitions.sum();
+    }
+
+    /**
+     * Fraction (0 to 1) of the acquisitions that had to wait
+     */
+    public double getContentionRate() {
+        long total = acquisitions.sum();
+        return total == 0 ? 0 : (double) contendedAcquisitions.sum() / total;
+    }
+
+    /**
+     * Number of threads waiting for the lock right now
+     */
+    public int getQueueLength() {
+        return queueLength.get();
+    }
+
+    public long getMaxQueueLength() {
+        return maxQueueLength.get();
+    }
+
+    void uncontendedAcquisition() {
+        acquisitions.increment();
+    }
+
+    /**
+     * @return the queue length including the calling thread
+     */
+    int startWaiting() {
+        int waiting = queueLength.incrementAndGet();
+        maxQueueLength.accumulate(waiting);
+        return waiting;
+    }
+
+    void stopWaiting(long waitNanos, boolean acquired) {
+        queueLength.decrementAndGet();
+        waitTime.record(waitNanos);
+        if (acquired) {
+            acquisitions.increment();
+            contendedAcquisitions.increment();
+        }
+    }
+
+    /**
+     * The thread started waiting but got the lock right away (fair locks)
+     */
+    void cancelWaiting() {
+        queueLength.decrementAndGet();
+        acquisitions.increment();
+    }
+
+    void released(long holdNanos) {
+        holdTime.record(holdNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: acquisitions=%,d contention=%.2f%% maxQueue=%d%n  wait: %s%n  hold: %s", name,
+                getAcquisitions(), getContentionRate() * 100, getMaxQueueLength(), waitTime, holdTime);
+    }
+}
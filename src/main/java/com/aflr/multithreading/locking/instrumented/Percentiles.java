@@ -0,0 +1,70 @@
+package com.aflr.multithreading.locking.instrumented;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles of durations, either:
+ * - recorded in power of 2 buckets: bucket i counts the durations whose highest set bit is i, from 2^i to 2^(i+1) - 1
+ *   ns. Used by the LatencyHistogram and by benchmarks that keep a plain long[] of buckets per thread and merge them at
+ *   the end. Percentiles are the upper bound of their bucket
+ * - or kept one by one in a long[], when the number of samples is known in advance. Percentiles are exact
+ */
+public final class Percentiles {
+    public static final int BUCKETS = 64;
+
+    private Percentiles() {
+    }
+
+    /**
+     * @return index of the bucket counting the given duration, negative durations counting as 0
+     */
+    public static int bucketOf(long nanos) {
+        return 63 - Long.numberOfLeadingZeros(Math.max(nanos, 0) | 1);
+    }
+
+    /**
+     * @param buckets    BUCKETS counts, as indexed by bucketOf
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return upper bound (in ns) of the bucket containing that percentile, 0 if nothing was recorded
+     */
+    public static long ofBuckets(long[] buckets, double percentile) {
+        long samples = 0;
+        for (long bucket : buckets) {
+            samples += bucket;
+        }
+        if (samples == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(samples * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @param sorted     durations sorted in ascending order, at least one
+     * @param percentile between 0 and 100, e.g. 99.9
+     * @return the smallest duration that at least percentile % of the durations don't exceed (nearest rank)
+     */
+    public static long ofSorted(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * @param nanos durations in nanoseconds, at least one. Not modified
+     * @return p50, p99, p99.9 and max of the durations, in microseconds
+     */
+    public static String summarizeMicros(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50=%,d us p99=%,d us p99.9=%,d us max=%,d us", ofSorted(sorted, 50) / 1000,
+                ofSorted(sorted, 99) / 1000, ofSorted(sorted, 99.9) / 1000, sorted[sorted.length - 1] / 1000);
+    }
+}
@@ -0,0 +1,181 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.aflr.multithreading.free.lock.BackoffPolicy;
+
+/**
+ Same scenario as the ReentrantReadWriteLockExample, but readers never take a lock (RCU style: read-copy-update).
+ The counts live in an immutable Snapshot referenced by a single AtomicReference:
+ - a reader just dereferences the current snapshot and answers from it. There is no lock, no CAS and no retry, so readers are wait-free and scale
+   with the number of cores instead of contending on the readLock
+ - a writer copies the current snapshot, applies its change to the copy and publishes it with compareAndSet, exactly like the
+   AtomicReferenceExample.LockFreeStack publishes a new head. If another writer published first, it retries on top of the new version
+ Every write copies the whole price domain, so this only pays off when writes are rare, as in this example where the writer sleeps 10 ms between
+ mutations. In exchange, the snapshot can keep the prefix sums of the counts, so a range query is just two array reads.
+ * */
+public class CopyOnWriteSnapshotExample {
+    public static final int HIGHEST_PRICE = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        InventoryDatabase inventoryDatabase = new InventoryDatabase(HIGHEST_PRICE);
+        System.out.println(String.format("Reading took %d ms", StampedLockExample.measureReading(inventoryDatabase)));
+    }
+
+    public static class InventoryDatabase implements Inventory {
+        private final AtomicReference<Snapshot> snapshot;
+        private final BackoffPolicy backoffPolicy;
+
+        public InventoryDatabase(int highestPrice) {
+            this(highestPrice, BackoffPolicy.none());
+        }
+
+        /**
+         * @param highestPrice  the highest price (inclusive) this inventory can hold. Prices go from 0 to highestPrice
+         * @param backoffPolicy what a writer does when another writer published a new snapshot first
+         */
+        public InventoryDatabase(int highestPrice, BackoffPolicy backoffPolicy) {
+            if (highestPrice < 0) {
+                throw new IllegalArgumentException("highestPrice must not be negative: " + highestPrice);
+            }
+            snapshot = new AtomicReference<>(new Snapshot(new int[highestPrice + 2]));
+            this.backoffPolicy = backoffPolicy;
+        }
+
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            return snapshot.get().rangeSum(lowerBound, upperBound);
+        }
+
+        public void addItem(int price) {
+            checkPrice(price);
+            int attempt = 0;
+            while (true) {
+                Snapshot currentSnapshot = snapshot.get();
+                if (snapshot.compareAndSet(currentSnapshot, currentSnapshot.withDelta(price, 1))) {
+                    return;
+                }
+                backoffPolicy.onCasFailure(++attempt);
+            }
+        }
+
+        public void removeItem(int price) {
+            checkPrice(price);
+            int attempt = 0;
+            while (true) {
+                Snapshot currentSnapshot = snapshot.get();
+                if (currentSnapshot.count(price) == 0) {
+                    return;
+                }
+                if (snapshot.compareAndSet(currentSnapshot, currentSnapshot.withDelta(price, -1))) {
+                    return;
+                }
+                backoffPolicy.onCasFailure(++attempt);
+            }
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            if (priceDeltas.isEmpty()) {
+                return 0;
+            }
+            checkPrice(priceDeltas.lowestPrice());
+            checkPrice(priceDeltas.highestPrice());
+
+            //The whole batch produces a single new version, so it costs one copy no matter how many prices it has
+            int attempt = 0;
+            while (true) {
+                Snapshot currentSnapshot = snapshot.get();
+                AppliedDeltas applied = currentSnapshot.withDeltas(priceDeltas);
+                if (applied.changedPrices() == 0 || snapshot.compareAndSet(currentSnapshot, applied.snapshot())) {
+                    return applied.changedPrices();
+                }
+                backoffPolicy.onCasFailure(++attempt);
+            }
+        }
+
+        public BackoffPolicy getBackoffPolicy() {
+            return backoffPolicy;
+        }
+
+        private void checkPrice(int price) {
+            int highestPrice = snapshot.get().highestPrice();
+            if (price < 0 || price > highestPrice) {
+                throw new IllegalArgumentException("Price out of range [0, " + highestPrice + "]: " + price);
+            }
+        }
+    }
+
+    /**
+     * Immutable version of the inventory. Once published it is never modified, so any number of readers can use it
+     * without synchronization.
+     */
+    private static final class Snapshot {
+        //prefixSums[i] is the number of items with a price lower than i. prefixSums[0] is always 0
+        private final int[] prefixSums;
+
+        private Snapshot(int[] prefixSums) {
+            this.prefixSums = prefixSums;
+        }
+
+        int highestPrice() {
+            return prefixSums.length - 2;
+        }
+
+        int count(int price) {
+            return prefixSums[price + 1] - prefixSums[price];
+        }
+
+        int rangeSum(int lowerBound, int upperBound) {
+            int from = Math.max(lowerBound, 0);
+            int to = Math.min(upperBound, highestPrice());
+            if (from > to) {
+                return 0;
+            }
+            return prefixSums[to + 1] - prefixSums[from];
+        }
+
+        /**
+         * @throws IllegalArgumentException if the count of the price would overflow an int
+         */
+        Snapshot withDelta(int price, int delta) {
+            PriceDeltas.newCount(price, count(price), delta);
+            int[] newPrefixSums = prefixSums.clone();
+            for (int i = price + 1; i < newPrefixSums.length; i++) {
+                newPrefixSums[i] += delta;
+            }
+            return new Snapshot(newPrefixSums);
+        }
+
+        /**
+         * Applies the merged deltas in a single pass over the prefix sums. Counts never go below zero
+         *
+         * @throws IllegalArgumentException if the count of a price would overflow an int
+         */
+        AppliedDeltas withDeltas(PriceDeltas priceDeltas) {
+            priceDeltas.checkCounts(this::count);
+            int[] newPrefixSums = new int[prefixSums.length];
+            int offset = 0;
+            int nextDelta = 0;
+            int changedPrices = 0;
+            for (int i = 1; i < newPrefixSums.length; i++) {
+                int price = i - 1;
+                if (nextDelta < priceDeltas.size && priceDeltas.prices[nextDelta] == price) {
+                    int appliedDelta = Math.max(priceDeltas.deltas[nextDelta], -count(price));
+                    if (appliedDelta != 0) {
+                        offset += appliedDelta;
+                        changedPrices++;
+                    }
+                    nextDelta++;
+                }
+                newPrefixSums[i] = prefixSums[i] + offset;
+            }
+            return new AppliedDeltas(new Snapshot(newPrefixSums), changedPrices);
+        }
+    }
+
+    /**
+     * @param changedPrices number of prices whose count changed between the current snapshot and the new one
+     */
+    private record AppliedDeltas(Snapshot snapshot, int changedPrices) {
+    }
+}
@@ -0,0 +1,127 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ Same scenario as the ReentrantReadWriteLockExample: one writer thread that adds & removes items and then sleeps for 10 milliseconds, and many readers
+ asking for the number of items in a price range.
+ The difference is the data structure behind the read/write lock. The TreeMap version visits (and unboxes) every price of the range while holding
+ the read lock, so a wide range over 1000 prices costs up to 1000 node visits. Here the counts live in a Fenwick tree (binary indexed tree) built on a
+ plain int array indexed by price:
+ - a range query is the difference of two prefix sums, O(log HIGHEST_PRICE), without allocating anything
+ - addItem/removeItem are point updates, also O(log HIGHEST_PRICE)
+ The price domain has to be known upfront (0..HIGHEST_PRICE), which is the case in these examples.
+ * */
+public class FenwickTreeExample {
+    public static final int HIGHEST_PRICE = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        InventoryDatabase inventoryDatabase = new InventoryDatabase(HIGHEST_PRICE);
+
+        Random random = new Random();
+        for (int i = 0; i < 100000; i++) {
+            inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
+        }
+
+        Thread writer = new Thread(() -> {
+            while (true) {
+                inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
+                inventoryDatabase.removeItem(random.nextInt(HIGHEST_PRICE));
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+
+        writer.setDaemon(true);
+        writer.start();
+
+        int numberOfReaderThreads = 7;
+        List<Thread> readers = new ArrayList<>();
+
+        for (int readerIndex = 0; readerIndex < numberOfReaderThreads; readerIndex++) {
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    int upperBoundPrice = random.nextInt(HIGHEST_PRICE);
+                    int lowerBoundPrice = upperBoundPrice > 0 ? random.nextInt(upperBoundPrice) : 0;
+                    inventoryDatabase.getNumberOfItemsInPriceRange(lowerBoundPrice, upperBoundPrice);
+                }
+            });
+
+            reader.setDaemon(true);
+            readers.add(reader);
+        }
+
+        long startReadingTime = System.currentTimeMillis();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        long endReadingTime = System.currentTimeMillis();
+
+        System.out.println(String.format("Reading took %d ms", endReadingTime - startReadingTime));
+    }
+
+    public static class InventoryDatabase implements Inventory {
+        private final PriceCountTree priceCountTree;
+        private ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
+        private Lock readLock = reentrantReadWriteLock.readLock();
+        private Lock writeLock = reentrantReadWriteLock.writeLock();
+
+        /**
+         * @param highestPrice the highest price (inclusive) this inventory can hold. Prices go from 0 to highestPrice
+         */
+        public InventoryDatabase(int highestPrice) {
+            priceCountTree = new PriceCountTree(highestPrice);
+        }
+
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            readLock.lock();
+            try {
+                return priceCountTree.rangeSum(lowerBound, upperBound);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        public void addItem(int price) {
+            priceCountTree.checkPrice(price);
+            writeLock.lock();
+            try {
+                priceCountTree.add(price);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        public void removeItem(int price) {
+            priceCountTree.checkPrice(price);
+            writeLock.lock();
+            try {
+                priceCountTree.remove(price);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            priceCountTree.checkPrices(priceDeltas);
+            writeLock.lock();
+            try {
+                return priceCountTree.apply(priceDeltas);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+/**
+ * Common contract of every InventoryDatabase in this package. The examples only differ in how they protect (or avoid
+ * protecting) the price to count storage, so any of them can be swapped into the same main method.
+ */
+public interface Inventory {
+
+    int getNumberOfItemsInPriceRange(int lowerBound, int upperBound);
+
+    /**
+     * @throws IllegalArgumentException if the count of the price would overflow an int
+     */
+    void addItem(int price);
+
+    void removeItem(int price);
+
+    /**
+     * Adds one item per element of prices. Same as applyDeltas with a delta of +1 for every price
+     *
+     * @return number of distinct prices whose count changed
+     */
+    default int addItems(int[] prices) {
+        return applyDeltas(prices, PriceDeltas.filled(prices.length, 1));
+    }
+
+    /**
+     * Removes one item per element of prices. Same as applyDeltas with a delta of -1 for every price
+     *
+     * @return number of distinct prices whose count changed
+     */
+    default int removeItems(int[] prices) {
+        return applyDeltas(prices, PriceDeltas.filled(prices.length, -1));
+    }
+
+    /**
+     * Adds deltas[i] items (removes them if negative) with price prices[i], for every i, as a single write: the deltas of
+     * repeated prices are merged first and the whole batch is applied with one lock acquisition, so readers see either
+     * none or all of it. Since the batch is applied as one net delta per price, a count never goes below zero: removing
+     * more items than there are just removes the price, like removeItem does for a missing price.
+     *
+     * @return number of distinct prices whose count changed
+     * @throws IllegalArgumentException if a price is out of range or if the count of a price would overflow an int.
+     *                                  Nothing is applied then
+     */
+    int applyDeltas(int[] prices, int[] deltas);
+}
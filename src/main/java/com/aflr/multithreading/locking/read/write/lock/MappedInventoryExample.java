@@ -0,0 +1,296 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ An InventoryDatabase whose counts live off-heap, in a memory-mapped file indexed directly by price.
+ A TreeMap<Integer, Integer> costs 60+ bytes of heap per price (entry + two boxed Integers) that the GC has to scan again and again. With a price
+ domain of millions of values that is hundreds of MB of heap. Here the heap only holds this object and a MappedByteBuffer: the counts and a Fenwick
+ tree over them (see FenwickTreeExample) are two int arrays inside the file, 8 bytes per price, and the OS pages them in and out as needed.
+
+ Because the data is a file, a restarted process maps it again and gets the last counts back in one pass over them, instead of adding 100000 items
+ one by one as the other mains do. Run this main twice: the first run populates the file, the second one just opens it. Writes reach the page cache
+ right away, call force() to make sure they are on disk (the OS also flushes dirty pages on its own).
+
+ Only the counts are trusted when a file is opened again. A write stores a count and then several cells of the tree, and the process may die in
+ between: the tree of an existing file is therefore rebuilt from the counts (O(highestPrice)) before the inventory is used. Each count is a single
+ aligned int, so it is either the old one or the new one, but a batch interrupted by a crash may be only partly applied.
+
+ Reads use the StampedLock optimistic read of the StampedLockExample: reading a mapped int can't throw, so a reader racing with a writer just sees wrong
+ numbers that the validation discards.
+ * */
+public class MappedInventoryExample {
+    public static final int HIGHEST_PRICE = 1000;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Path file = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("java.io.tmpdir"), "inventory.db");
+
+        long startOpeningTime = System.currentTimeMillis();
+        try (InventoryDatabase inventoryDatabase = new InventoryDatabase(file, HIGHEST_PRICE)) {
+            long openingTime = System.currentTimeMillis() - startOpeningTime;
+            int numberOfItems = inventoryDatabase.getNumberOfItemsInPriceRange(0, HIGHEST_PRICE);
+
+            if (numberOfItems > 0) {
+                System.out.println(String.format("Opened %s with %,d items in %d ms", file, numberOfItems, openingTime));
+                return;
+            }
+
+            Random random = new Random();
+            int[] initialPrices = new int[100000];
+            for (int i = 0; i < initialPrices.length; i++) {
+                initialPrices[i] = random.nextInt(HIGHEST_PRICE);
+            }
+            long startPopulatingTime = System.currentTimeMillis();
+            inventoryDatabase.addItems(initialPrices);
+            inventoryDatabase.force();
+            System.out.println(String.format("Populated %s with %,d items in %d ms. Run again to reopen it", file,
+                    inventoryDatabase.getNumberOfItemsInPriceRange(0, HIGHEST_PRICE),
+                    System.currentTimeMillis() - startPopulatingTime));
+        }
+    }
+
+    public static class InventoryDatabase implements Inventory, Closeable {
+        private static final int MAGIC = 0x494E5644; //"INVD"
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 16;
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int highestPrice;
+        //byte offsets of the two int arrays inside the file
+        private final int countsOffset;
+        private final int treeOffset;
+        private final StampedLock stampedLock = new StampedLock();
+        //Set under the write lock by close. Volatile so that the optimistic readers, which hold no lock, see it too
+        private volatile boolean closed;
+
+        /**
+         * Opens the inventory stored in file, or creates an empty one if the file doesn't exist (or is empty). The Fenwick
+         * tree of an existing file is rebuilt from its counts, since it may not match them after a crash
+         *
+         * @param highestPrice the highest price (inclusive) this inventory can hold. Prices go from 0 to highestPrice.
+         *                     It must match the one the file was created with
+         */
+        public InventoryDatabase(Path file, int highestPrice) throws IOException {
+            if (highestPrice < 0) {
+                throw new IllegalArgumentException("highestPrice must not be negative: " + highestPrice);
+            }
+            //counts: highestPrice + 1 ints, Fenwick tree (1-based): highestPrice + 2 ints
+            long size = HEADER_BYTES + 4L * (highestPrice + 1) + 4L * (highestPrice + 2);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("highestPrice too large for a single mapping: " + highestPrice);
+            }
+
+            this.highestPrice = highestPrice;
+            this.countsOffset = HEADER_BYTES;
+            this.treeOffset = HEADER_BYTES + 4 * (highestPrice + 1);
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                long existingSize = channel.size();
+                if (existingSize != 0 && existingSize != size) {
+                    throw new IOException(file + " has " + existingSize + " bytes, expected " + size
+                            + " for highestPrice " + highestPrice);
+                }
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                this.buffer.order(ByteOrder.nativeOrder());
+
+                if (existingSize == 0) {
+                    buffer.putInt(0, MAGIC);
+                    buffer.putInt(4, VERSION);
+                    buffer.putInt(8, highestPrice);
+                } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != highestPrice) {
+                    throw new IOException(file + " is not an inventory file for highestPrice " + highestPrice);
+                } else {
+                    rebuildTree();
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Creates an inventory backed by a temporary file deleted when the JVM exits
+         */
+        public static InventoryDatabase temporary(int highestPrice) {
+            try {
+                Path file = Files.createTempFile("inventory", ".db");
+                file.toFile().deleteOnExit();
+                return new InventoryDatabase(file, highestPrice);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            int from = Math.max(lowerBound, 0);
+            int to = Math.min(upperBound, highestPrice);
+            if (from > to) {
+                return 0;
+            }
+
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0) {
+                checkOpen();
+                int sum = prefixSum(to) - prefixSum(from - 1);
+                if (stampedLock.validate(stamp)) {
+                    return sum;
+                }
+            }
+
+            stamp = stampedLock.readLock();
+            try {
+                checkOpen();
+                return prefixSum(to) - prefixSum(from - 1);
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
+        }
+
+        public void addItem(int price) {
+            checkPrice(price);
+            long stamp = stampedLock.writeLock();
+            try {
+                checkOpen();
+                apply(price, 1);
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+
+        public void removeItem(int price) {
+            checkPrice(price);
+            long stamp = stampedLock.writeLock();
+            try {
+                checkOpen();
+                apply(price, -1);
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            if (priceDeltas.isEmpty()) {
+                return 0;
+            }
+            checkPrice(priceDeltas.lowestPrice());
+            checkPrice(priceDeltas.highestPrice());
+
+            long stamp = stampedLock.writeLock();
+            try {
+                checkOpen();
+                priceDeltas.checkCounts(price -> buffer.getInt(countsOffset + 4 * price));
+                int changedPrices = 0;
+                for (int i = 0; i < priceDeltas.size; i++) {
+                    if (apply(priceDeltas.prices[i], priceDeltas.deltas[i])) {
+                        changedPrices++;
+                    }
+                }
+                return changedPrices;
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Writes the mapped pages to the storage device
+         */
+        public void force() {
+            long stamp = stampedLock.readLock();
+            try {
+                checkOpen();
+                buffer.force();
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Forces the data to disk and closes the file. Every later call but close throws IllegalStateException. The
+         * mapping itself is released by the GC
+         */
+        @Override
+        public void close() throws IOException {
+            long stamp = stampedLock.writeLock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                buffer.force();
+                channel.close();
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * Recomputes every cell of the tree from the counts, in one pass: each cell adds itself to its parent, the next
+         * cell covering it
+         */
+        private void rebuildTree() {
+            for (int i = 1; i <= highestPrice + 1; i++) {
+                buffer.putInt(treeOffset + 4 * i, buffer.getInt(countsOffset + 4 * (i - 1)));
+            }
+            for (int i = 1; i <= highestPrice + 1; i++) {
+                int parent = i + (i & -i);
+                if (parent <= highestPrice + 1) {
+                    buffer.putInt(treeOffset + 4 * parent,
+                            buffer.getInt(treeOffset + 4 * parent) + buffer.getInt(treeOffset + 4 * i));
+                }
+            }
+        }
+
+        private void checkOpen() {
+            if (closed) {
+                throw new IllegalStateException("The inventory is closed");
+            }
+        }
+
+        /**
+         * Adds delta items with that price, never going below zero. The caller must hold the write lock
+         *
+         * @return false if the count didn't change
+         * @throws IllegalArgumentException if the count of the price would overflow an int
+         */
+        private boolean apply(int price, int delta) {
+            int countIndex = countsOffset + 4 * price;
+            int count = buffer.getInt(countIndex);
+            int appliedDelta = PriceDeltas.newCount(price, count, delta) - count;
+            if (appliedDelta == 0) {
+                return false;
+            }
+            buffer.putInt(countIndex, count + appliedDelta);
+            for (int i = price + 1; i <= highestPrice + 1; i += i & -i) {
+                int treeIndex = treeOffset + 4 * i;
+                buffer.putInt(treeIndex, buffer.getInt(treeIndex) + appliedDelta);
+            }
+            return true;
+        }
+
+        private int prefixSum(int price) {
+            int sum = 0;
+            for (int i = price + 1; i > 0; i -= i & -i) {
+                sum += buffer.getInt(treeOffset + 4 * i);
+            }
+            return sum;
+        }
+
+        private void checkPrice(int price) {
+            if (price < 0 || price > highestPrice) {
+                throw new IllegalArgumentException("Price out of range [0, " + highestPrice + "]: " + price);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+/**
+ * Fenwick tree (binary indexed tree) of item counts over the price domain 0..highestPrice. It is NOT thread-safe: each
+ * InventoryDatabase decides how to protect it. Everything is stored in primitive int arrays, so neither the updates nor
+ * the queries allocate, and a racy read can never throw: it can only see inconsistent numbers, which is what the
+ * optimistic readers rely on.
+ */
+final class PriceCountTree {
+    //Exact number of items per price. Needed to ignore removals of prices that are not in the inventory, like the TreeMap version does
+    private final int[] priceToCount;
+    //1-based: tree[i] holds the sum of the (i & -i) prices ending at price i - 1
+    private final int[] tree;
+
+    /**
+     * @param highestPrice the highest price (inclusive) this tree can hold. Prices go from 0 to highestPrice
+     */
+    PriceCountTree(int highestPrice) {
+        if (highestPrice < 0) {
+            throw new IllegalArgumentException("highestPrice must not be negative: " + highestPrice);
+        }
+        priceToCount = new int[highestPrice + 1];
+        tree = new int[highestPrice + 2];
+    }
+
+    int highestPrice() {
+        return priceToCount.length - 1;
+    }
+
+    int count(int price) {
+        return priceToCount[price];
+    }
+
+    int rangeSum(int lowerBound, int upperBound) {
+        int from = Math.max(lowerBound, 0);
+        int to = Math.min(upperBound, highestPrice());
+        if (from > to) {
+            return 0;
+        }
+        return prefixSum(to) - prefixSum(from - 1);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the count of the price would overflow an int
+     */
+    void add(int price) {
+        priceToCount[price] = PriceDeltas.newCount(price, priceToCount[price], 1);
+        update(price, 1);
+    }
+
+    /**
+     * @return false if there was no item with that price
+     */
+    boolean remove(int price) {
+        if (priceToCount[price] == 0) {
+            return false;
+        }
+        priceToCount[price]--;
+        update(price, -1);
+        return true;
+    }
+
+    /**
+     * Adds delta items with that price (removes them if negative), never going below zero
+     *
+     * @return false if the count didn't change
+     * @throws IllegalArgumentException if the count of the price would overflow an int
+     */
+    boolean apply(int price, int delta) {
+        int appliedDelta = PriceDeltas.newCount(price, priceToCount[price], delta) - priceToCount[price];
+        if (appliedDelta == 0) {
+            return false;
+        }
+        priceToCount[price] += appliedDelta;
+        update(price, appliedDelta);
+        return true;
+    }
+
+    /**
+     * Same as calling apply for every price of the batch, except that the counts are all checked first
+     *
+     * @return number of prices whose count changed
+     * @throws IllegalArgumentException if the count of a price would overflow an int. Nothing is applied then
+     */
+    int apply(PriceDeltas priceDeltas) {
+        priceDeltas.checkCounts(this::count);
+        int changedPrices = 0;
+        for (int i = 0; i < priceDeltas.size; i++) {
+            if (apply(priceDeltas.prices[i], priceDeltas.deltas[i])) {
+                changedPrices++;
+            }
+        }
+        return changedPrices;
+    }
+
+    void checkPrices(PriceDeltas priceDeltas) {
+        if (!priceDeltas.isEmpty()) {
+            checkPrice(priceDeltas.lowestPrice());
+            checkPrice(priceDeltas.highestPrice());
+        }
+    }
+
+    void checkPrice(int price) {
+        if (price < 0 || price > highestPrice()) {
+            throw new IllegalArgumentException("Price out of range [0, " + highestPrice() + "]: " + price);
+        }
+    }
+
+    /**
+     * Sum of the counts of all prices from 0 to price (inclusive). A negative price gives 0
+     */
+    private int prefixSum(int price) {
+        int sum = 0;
+        for (int i = price + 1; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    private void update(int price, int delta) {
+        for (int i = price + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A batch of inventory changes merged into one net delta per price, sorted by price. It is built before taking any
+ * lock, so the write lock is only held while the already merged deltas are applied.
+ */
+final class PriceDeltas {
+    final int[] prices;
+    final int[] deltas;
+    final int size;
+
+    private PriceDeltas(int[] prices, int[] deltas, int size) {
+        this.prices = prices;
+        this.deltas = deltas;
+        this.size = size;
+    }
+
+    static int[] filled(int length, int delta) {
+        int[] deltas = new int[length];
+        Arrays.fill(deltas, delta);
+        return deltas;
+    }
+
+    /**
+     * Merges repeated prices and drops the ones whose net delta is zero
+     *
+     * @throws IllegalArgumentException if the net delta of a price doesn't fit in an int
+     */
+    static PriceDeltas merge(int[] prices, int[] deltas) {
+        if (prices.length != deltas.length) {
+            throw new IllegalArgumentException(
+                    "prices and deltas must have the same length: " + prices.length + " != " + deltas.length);
+        }
+
+        //price in the high 32 bits so that sorting the packed values sorts by price
+        long[] packed = new long[prices.length];
+        for (int i = 0; i < prices.length; i++) {
+            packed[i] = ((long) prices[i] << 32) | (deltas[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+
+        int[] mergedPrices = new int[packed.length];
+        int[] mergedDeltas = new int[packed.length];
+        int size = 0;
+        int i = 0;
+        while (i < packed.length) {
+            int price = (int) (packed[i] >> 32);
+            long delta = 0;
+            while (i < packed.length && (int) (packed[i] >> 32) == price) {
+                delta += (int) packed[i];
+                i++;
+            }
+            if (delta != (int) delta) {
+                throw new IllegalArgumentException("The net delta of price " + price + " overflows an int: " + delta);
+            }
+            if (delta != 0) {
+                mergedPrices[size] = price;
+                mergedDeltas[size] = (int) delta;
+                size++;
+            }
+        }
+        return new PriceDeltas(mergedPrices, mergedDeltas, size);
+    }
+
+    /**
+     * Count of a price after adding delta to it: never below zero, and never above Integer.MAX_VALUE, since every
+     * InventoryDatabase reports counts as ints
+     *
+     * @throws IllegalArgumentException if the count would overflow an int
+     */
+    static int newCount(int price, int currentCount, int delta) {
+        long newCount = (long) currentCount + delta;
+        if (newCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The count of price " + price + " would overflow an int: " + newCount);
+        }
+        return (int) Math.max(newCount, 0);
+    }
+
+    /**
+     * Checks that none of the counts overflows once the deltas are applied, so that a batch can be rejected before any
+     * of its prices is changed. Only positive deltas can overflow
+     *
+     * @param countOfPrice current count of a price
+     * @throws IllegalArgumentException if the count of a price would overflow an int
+     */
+    void checkCounts(IntUnaryOperator countOfPrice) {
+        for (int i = 0; i < size; i++) {
+            if (deltas[i] > 0) {
+                newCount(prices[i], countOfPrice.applyAsInt(prices[i]), deltas[i]);
+            }
+        }
+    }
+
+    /**
+     * Applies the deltas to a map of price -> count holding only the non-zero counts. Counts never go below zero. The
+     * caller must hold the lock guarding the map
+     *
+     * @return the number of prices whose count changed
+     * @throws IllegalArgumentException if the count of a price would overflow an int. The map is left unchanged
+     */
+    int applyTo(Map<Integer, Integer> priceToCountMap) {
+        checkCounts(price -> priceToCountMap.getOrDefault(price, 0));
+        int changedPrices = 0;
+        for (int i = 0; i < size; i++) {
+            int price = prices[i];
+            Integer numberOfItemsForPrice = priceToCountMap.get(price);
+            int currentCount = numberOfItemsForPrice == null ? 0 : numberOfItemsForPrice;
+            int newCount = newCount(price, currentCount, deltas[i]);
+            if (newCount == currentCount) {
+                continue;
+            }
+            if (newCount == 0) {
+                priceToCountMap.remove(price);
+            } else {
+                priceToCountMap.put(price, newCount);
+            }
+            changedPrices++;
+        }
+        return changedPrices;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int lowestPrice() {
+        return prices[0];
+    }
+
+    int highestPrice() {
+        return prices[size - 1];
+    }
+
+    int[] trimmedPrices() {
+        return Arrays.copyOf(prices, size);
+    }
+
+    int[] trimmedDeltas() {
+        return Arrays.copyOf(deltas, size);
+    }
+}
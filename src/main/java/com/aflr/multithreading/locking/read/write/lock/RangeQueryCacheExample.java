@@ -0,0 +1,242 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ Readers usually ask for the same few price bands over and over, and every call computes the same range sum again (a whole subMap scan in the TreeMap
+ versions). Here a CachedInventoryDatabase sits in front of any InventoryDatabase and remembers the result of every (lowerBound, upperBound) query.
+ - Every entry stores the write epoch it was computed at. Every write bumps the epoch, so an entry is valid only while its epoch is the current one.
+   Stale entries are detected when they are read, there is no global flush and no lock.
+ - The cache is bounded. When it is full a new entry replaces an old one chosen by the CLOCK algorithm (an approximation of LRU): every hit marks the
+   entry as referenced, and the clock hand skips (and un-marks) referenced entries until it finds one that was not used since its last visit.
+ - Hits, misses (including stale entries) and evictions are counted so that the capacity can be tuned.
+ Since any write invalidates every entry, the cache pays off when reads clearly outnumber writes, like in these examples.
+ * */
+public class RangeQueryCacheExample {
+    public static final int HIGHEST_PRICE = 1000;
+    public static final int NUMBER_OF_HOT_BANDS = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(String.format("Without cache: reading took %d ms",
+                measureHotBandsReading(new ReentrantReadWriteLockExample.InventoryDatabase())));
+
+        CachedInventoryDatabase cachedInventoryDatabase =
+                new CachedInventoryDatabase(new ReentrantReadWriteLockExample.InventoryDatabase(), 256);
+        System.out.println(String.format("With cache: reading took %d ms", measureHotBandsReading(cachedInventoryDatabase)));
+        System.out.println(String.format("hits: %,d, misses: %,d, evictions: %,d", cachedInventoryDatabase.getHits(),
+                cachedInventoryDatabase.getMisses(), cachedInventoryDatabase.getEvictions()));
+    }
+
+    /**
+     * Same workload as StampedLockExample.measureReading but the readers only ask for NUMBER_OF_HOT_BANDS different
+     * price ranges
+     */
+    static long measureHotBandsReading(Inventory inventoryDatabase) throws InterruptedException {
+        Random random = new Random();
+        int[] initialPrices = new int[100000];
+        for (int i = 0; i < initialPrices.length; i++) {
+            initialPrices[i] = random.nextInt(HIGHEST_PRICE);
+        }
+        inventoryDatabase.addItems(initialPrices);
+
+        int[] hotLowerBounds = new int[NUMBER_OF_HOT_BANDS];
+        int[] hotUpperBounds = new int[NUMBER_OF_HOT_BANDS];
+        for (int i = 0; i < NUMBER_OF_HOT_BANDS; i++) {
+            hotUpperBounds[i] = random.nextInt(HIGHEST_PRICE);
+            hotLowerBounds[i] = hotUpperBounds[i] > 0 ? random.nextInt(hotUpperBounds[i]) : 0;
+        }
+
+        Thread writer = new Thread(() -> {
+            int[] prices = new int[2];
+            int[] deltas = {1, -1};
+            while (!Thread.currentThread().isInterrupted()) {
+                prices[0] = random.nextInt(HIGHEST_PRICE);
+                prices[1] = random.nextInt(HIGHEST_PRICE);
+                inventoryDatabase.applyDeltas(prices, deltas);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        writer.setDaemon(true);
+        writer.start();
+
+        int numberOfReaderThreads = 7;
+        List<Thread> readers = new ArrayList<>();
+
+        for (int readerIndex = 0; readerIndex < numberOfReaderThreads; readerIndex++) {
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    int band = ThreadLocalRandom.current().nextInt(NUMBER_OF_HOT_BANDS);
+                    inventoryDatabase.getNumberOfItemsInPriceRange(hotLowerBounds[band], hotUpperBounds[band]);
+                }
+            });
+
+            reader.setDaemon(true);
+            readers.add(reader);
+        }
+
+        long startReadingTime = System.currentTimeMillis();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        long endReadingTime = System.currentTimeMillis();
+
+        writer.interrupt();
+        writer.join();
+
+        return endReadingTime - startReadingTime;
+    }
+
+    /**
+     * Range query cache in front of another InventoryDatabase. Writes go straight to the delegate and then bump the
+     * epoch. A reader reads the epoch before querying the delegate, so a cached result can only be tagged with an
+     * epoch older than (or equal to) the data it was computed from, never newer: a write the result missed has not
+     * bumped the epoch yet and will invalidate it.
+     */
+    public static class CachedInventoryDatabase implements Inventory {
+        private final Inventory delegate;
+        private final AtomicLong epoch = new AtomicLong();
+        private final ConcurrentHashMap<Long, Entry> index;
+        //CLOCK ring: every entry of the index owns exactly one slot, so the index never grows beyond the capacity
+        private final AtomicReferenceArray<Entry> slots;
+        private final AtomicInteger clockHand = new AtomicInteger();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        /**
+         * @param delegate the InventoryDatabase that holds the data
+         * @param capacity maximum number of cached price ranges
+         */
+        public CachedInventoryDatabase(Inventory delegate, int capacity) {
+            if (capacity < 1) {
+                throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            }
+            this.delegate = delegate;
+            this.index = new ConcurrentHashMap<>(capacity * 2);
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            long key = ((long) lowerBound << 32) | (upperBound & 0xFFFFFFFFL);
+            long currentEpoch = epoch.get();
+
+            Entry entry = index.get(key);
+            if (entry != null) {
+                CachedValue cachedValue = entry.cachedValue;
+                if (cachedValue.epoch == currentEpoch) {
+                    entry.referenced = true;
+                    hits.increment();
+                    return cachedValue.value;
+                }
+            }
+
+            misses.increment();
+            int value = delegate.getNumberOfItemsInPriceRange(lowerBound, upperBound);
+            CachedValue cachedValue = new CachedValue(value, currentEpoch);
+            if (entry != null) {
+                //Refresh the stale entry in place. If another reader refreshes it at the same time, whichever is
+                //written last wins and both values are correctly tagged with their epoch
+                entry.cachedValue = cachedValue;
+                entry.referenced = true;
+            } else {
+                insert(key, cachedValue);
+            }
+            return value;
+        }
+
+        public void addItem(int price) {
+            delegate.addItem(price);
+            epoch.incrementAndGet();
+        }
+
+        public void removeItem(int price) {
+            delegate.removeItem(price);
+            epoch.incrementAndGet();
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            int changedPrices = delegate.applyDeltas(prices, deltas);
+            if (changedPrices > 0) {
+                epoch.incrementAndGet();
+            }
+            return changedPrices;
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        /**
+         * Queries that had to go to the delegate, either because the range was not cached or because its entry was
+         * stale
+         */
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public int getCapacity() {
+            return slots.length();
+        }
+
+        private void insert(long key, CachedValue cachedValue) {
+            Entry newEntry = new Entry(key, cachedValue);
+            if (index.putIfAbsent(key, newEntry) != null) {
+                //another reader cached the same range in the meantime
+                return;
+            }
+
+            while (true) {
+                int slot = Math.floorMod(clockHand.getAndIncrement(), slots.length());
+                Entry victim = slots.get(slot);
+                if (victim != null && victim.referenced) {
+                    //second chance: it will be evicted on the next lap unless it is used again
+                    victim.referenced = false;
+                    continue;
+                }
+                if (slots.compareAndSet(slot, victim, newEntry)) {
+                    if (victim != null) {
+                        index.remove(victim.key, victim);
+                        evictions.increment();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final long key;
+        private volatile CachedValue cachedValue;
+        private volatile boolean referenced;
+
+        private Entry(long key, CachedValue cachedValue) {
+            this.key = key;
+            this.cachedValue = cachedValue;
+        }
+    }
+
+    private record CachedValue(int value, long epoch) {
+    }
+}
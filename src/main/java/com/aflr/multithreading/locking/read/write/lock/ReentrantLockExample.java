@@ -18,14 +18,20 @@ public class ReentrantLockExample {
         InventoryDatabase inventoryDatabase = new InventoryDatabase();
 
         Random random = new Random();
-        for (int i = 0; i < 100000; i++) {
-            inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
+        int[] initialPrices = new int[100000];
+        for (int i = 0; i < initialPrices.length; i++) {
+            initialPrices[i] = random.nextInt(HIGHEST_PRICE);
         }
+        inventoryDatabase.addItems(initialPrices);
 
         Thread writer = new Thread(() -> {
+            int[] prices = new int[2];
+            int[] deltas = {1, -1};
             while (true) {
-                inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
-                inventoryDatabase.removeItem(random.nextInt(HIGHEST_PRICE));
+                //add an item and remove another one with a single lock acquisition
+                prices[0] = random.nextInt(HIGHEST_PRICE);
+                prices[1] = random.nextInt(HIGHEST_PRICE);
+                inventoryDatabase.applyDeltas(prices, deltas);
                 try {
                     Thread.sleep(10);
                 } catch (InterruptedException e) {
@@ -66,9 +72,20 @@ public class ReentrantLockExample {
         System.out.println(String.format("Reading took %d ms", endReadingTime - startReadingTime));
     }
 
-    public static class InventoryDatabase {
+    public static class InventoryDatabase implements Inventory {
         private TreeMap<Integer, Integer> priceToCountMap = new TreeMap<>();
-        private Lock lock = new ReentrantLock();
+        private final Lock lock;
+
+        public InventoryDatabase() {
+            this(new ReentrantLock());
+        }
+
+        /**
+         * @param lock the lock protecting the inventory, e.g. an instrumented one
+         */
+        public InventoryDatabase(Lock lock) {
+            this.lock = lock;
+        }
 
         public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
             lock.lock();
@@ -101,7 +118,7 @@ public class ReentrantLockExample {
                 if (numberOfItemsForPrice == null) {
                     priceToCountMap.put(price, 1);
                 } else {
-                    priceToCountMap.put(price, numberOfItemsForPrice + 1);
+                    priceToCountMap.put(price, PriceDeltas.newCount(price, numberOfItemsForPrice, 1));
                 }
 
             } finally {
@@ -122,5 +139,15 @@ public class ReentrantLockExample {
                 lock.unlock();
             }
         }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            lock.lock();
+            try {
+                return priceDeltas.applyTo(priceToCountMap);
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 }
@@ -6,7 +6,7 @@ import java.util.NavigableMap;
 import java.util.Random;
 import java.util.TreeMap;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 /**
  This a better alternative to the ReentrantLockExample.
@@ -24,14 +24,20 @@ public class ReentrantReadWriteLockExample {
         InventoryDatabase inventoryDatabase = new InventoryDatabase();
 
         Random random = new Random();
-        for (int i = 0; i < 100000; i++) {
-            inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
+        int[] initialPrices = new int[100000];
+        for (int i = 0; i < initialPrices.length; i++) {
+            initialPrices[i] = random.nextInt(HIGHEST_PRICE);
         }
+        inventoryDatabase.addItems(initialPrices);
 
         Thread writer = new Thread(() -> {
+            int[] prices = new int[2];
+            int[] deltas = {1, -1};
             while (true) {
-                inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
-                inventoryDatabase.removeItem(random.nextInt(HIGHEST_PRICE));
+                //add an item and remove another one with a single lock acquisition
+                prices[0] = random.nextInt(HIGHEST_PRICE);
+                prices[1] = random.nextInt(HIGHEST_PRICE);
+                inventoryDatabase.applyDeltas(prices, deltas);
                 try {
                     Thread.sleep(10);
                 } catch (InterruptedException e) {
@@ -72,11 +78,22 @@ public class ReentrantReadWriteLockExample {
         System.out.println(String.format("Reading took %d ms", endReadingTime - startReadingTime));
     }
 
-    public static class InventoryDatabase {
+    public static class InventoryDatabase implements Inventory {
         private TreeMap<Integer, Integer> priceToCountMap = new TreeMap<>();
-        private ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
-        private Lock readLock = reentrantReadWriteLock.readLock();
-        private Lock writeLock = reentrantReadWriteLock.writeLock();
+        private final Lock readLock;
+        private final Lock writeLock;
+
+        public InventoryDatabase() {
+            this(new ReentrantReadWriteLock());
+        }
+
+        /**
+         * @param readWriteLock the lock protecting the inventory, e.g. an instrumented one
+         */
+        public InventoryDatabase(ReadWriteLock readWriteLock) {
+            this.readLock = readWriteLock.readLock();
+            this.writeLock = readWriteLock.writeLock();
+        }
 
         public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
             readLock.lock();
@@ -109,7 +126,7 @@ public class ReentrantReadWriteLockExample {
                 if (numberOfItemsForPrice == null) {
                     priceToCountMap.put(price, 1);
                 } else {
-                    priceToCountMap.put(price, numberOfItemsForPrice + 1);
+                    priceToCountMap.put(price, PriceDeltas.newCount(price, numberOfItemsForPrice, 1));
                 }
 
             } finally {
@@ -130,5 +147,15 @@ public class ReentrantReadWriteLockExample {
                 writeLock.unlock();
             }
         }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            writeLock.lock();
+            try {
+                return priceDeltas.applyTo(priceToCountMap);
+            } finally {
+                writeLock.unlock();
+            }
+        }
     }
 }
@@ -0,0 +1,223 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ Same scenario as the ReentrantReadWriteLockExample, but instead of one read/write lock for the whole inventory, the price domain 0..HIGHEST_PRICE is
+ split into N shards (lock striping). Every shard has its own ReentrantReadWriteLock and its own int array of counts:
+ - a write only locks the shard its price falls in, so readers of the other shards keep going
+ - a range query visits only the shards that overlap the range. Shards fully inside the range answer with their running total, only the two
+   boundary shards are scanned price by price
+ By default a range query locks one shard at a time, so a query spanning several shards can see a write in one shard and not a write that happened
+ just before in another one. getConsistentNumberOfItemsInPriceRange read-locks all the overlapping shards at once and gives a strictly consistent
+ answer. It always takes the locks in ascending shard order so that it can't deadlock with another consistent reader (see the DeadLockExample).
+ * */
+public class ShardedInventoryExample {
+    public static final int HIGHEST_PRICE = 1000;
+    public static final int NUMBER_OF_SHARDS = 16;
+
+    public static void main(String[] args) throws InterruptedException {
+        InventoryDatabase inventoryDatabase = new InventoryDatabase(HIGHEST_PRICE, NUMBER_OF_SHARDS);
+        System.out.println(String.format("Reading took %d ms", StampedLockExample.measureReading(inventoryDatabase)));
+    }
+
+    public static class InventoryDatabase implements Inventory {
+        private final Shard[] shards;
+        private final int shardWidth;
+        private final int highestPrice;
+
+        /**
+         * @param highestPrice   the highest price (inclusive) this inventory can hold. Prices go from 0 to highestPrice
+         * @param numberOfShards number of independent shards the price domain is split into
+         */
+        public InventoryDatabase(int highestPrice, int numberOfShards) {
+            if (highestPrice < 0) {
+                throw new IllegalArgumentException("highestPrice must not be negative: " + highestPrice);
+            }
+            if (numberOfShards < 1 || numberOfShards > highestPrice + 1) {
+                throw new IllegalArgumentException("numberOfShards must be between 1 and " + (highestPrice + 1) + ": " + numberOfShards);
+            }
+            this.highestPrice = highestPrice;
+            this.shardWidth = (highestPrice + numberOfShards) / numberOfShards;
+            this.shards = new Shard[(highestPrice + shardWidth) / shardWidth];
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = new Shard(i * shardWidth, Math.min(shardWidth, highestPrice + 1 - i * shardWidth));
+            }
+        }
+
+        /**
+         * Sums shard by shard, holding only one shard lock at a time. Each shard is consistent, but the result as a whole
+         * may mix writes that happened while the query was running
+         */
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            int from = Math.max(lowerBound, 0);
+            int to = Math.min(upperBound, highestPrice);
+            if (from > to) {
+                return 0;
+            }
+
+            int sum = 0;
+            for (int shardIndex = from / shardWidth; shardIndex <= to / shardWidth; shardIndex++) {
+                Shard shard = shards[shardIndex];
+                shard.readLock.lock();
+                try {
+                    sum += shard.rangeSum(from, to);
+                } finally {
+                    shard.readLock.unlock();
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Read-locks every overlapping shard (in ascending order) before summing, so the result matches the inventory at
+         * a single point in time. Writers to those shards wait until the whole query is done
+         */
+        public int getConsistentNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            int from = Math.max(lowerBound, 0);
+            int to = Math.min(upperBound, highestPrice);
+            if (from > to) {
+                return 0;
+            }
+
+            int firstShard = from / shardWidth;
+            int lastShard = to / shardWidth;
+            int lockedShard = firstShard - 1;
+            try {
+                for (int shardIndex = firstShard; shardIndex <= lastShard; shardIndex++) {
+                    shards[shardIndex].readLock.lock();
+                    lockedShard = shardIndex;
+                }
+
+                int sum = 0;
+                for (int shardIndex = firstShard; shardIndex <= lastShard; shardIndex++) {
+                    sum += shards[shardIndex].rangeSum(from, to);
+                }
+                return sum;
+            } finally {
+                for (int shardIndex = lockedShard; shardIndex >= firstShard; shardIndex--) {
+                    shards[shardIndex].readLock.unlock();
+                }
+            }
+        }
+
+        public void addItem(int price) {
+            Shard shard = shardFor(price);
+            shard.writeLock.lock();
+            try {
+                shard.priceToCount[price - shard.firstPrice] =
+                        PriceDeltas.newCount(price, shard.priceToCount[price - shard.firstPrice], 1);
+                shard.total++;
+            } finally {
+                shard.writeLock.unlock();
+            }
+        }
+
+        public void removeItem(int price) {
+            Shard shard = shardFor(price);
+            shard.writeLock.lock();
+            try {
+                if (shard.priceToCount[price - shard.firstPrice] > 0) {
+                    shard.priceToCount[price - shard.firstPrice]--;
+                    shard.total--;
+                }
+            } finally {
+                shard.writeLock.unlock();
+            }
+        }
+
+        /**
+         * Write-locks every shard touched by the batch (in ascending order, like the consistent read) so the whole batch
+         * becomes visible at once. Shards not touched by the batch stay available
+         */
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            if (priceDeltas.isEmpty()) {
+                return 0;
+            }
+            shardFor(priceDeltas.lowestPrice());
+            shardFor(priceDeltas.highestPrice());
+
+            //prices are sorted, so the shards are locked in ascending order
+            Shard[] lockedShards = new Shard[shards.length];
+            int numberOfLockedShards = 0;
+            try {
+                for (int i = 0; i < priceDeltas.size; i++) {
+                    Shard shard = shards[priceDeltas.prices[i] / shardWidth];
+                    if (numberOfLockedShards == 0 || lockedShards[numberOfLockedShards - 1] != shard) {
+                        shard.writeLock.lock();
+                        lockedShards[numberOfLockedShards++] = shard;
+                    }
+                }
+
+                priceDeltas.checkCounts(this::count);
+                int changedPrices = 0;
+                for (int i = 0; i < priceDeltas.size; i++) {
+                    int price = priceDeltas.prices[i];
+                    Shard shard = shards[price / shardWidth];
+                    int currentCount = shard.priceToCount[price - shard.firstPrice];
+                    int appliedDelta = PriceDeltas.newCount(price, currentCount, priceDeltas.deltas[i]) - currentCount;
+                    if (appliedDelta != 0) {
+                        shard.priceToCount[price - shard.firstPrice] = currentCount + appliedDelta;
+                        shard.total += appliedDelta;
+                        changedPrices++;
+                    }
+                }
+                return changedPrices;
+            } finally {
+                for (int i = numberOfLockedShards - 1; i >= 0; i--) {
+                    lockedShards[i].writeLock.unlock();
+                }
+            }
+        }
+
+        /**
+         * The caller must hold the lock of the shard of that price
+         */
+        private int count(int price) {
+            Shard shard = shards[price / shardWidth];
+            return shard.priceToCount[price - shard.firstPrice];
+        }
+
+        private Shard shardFor(int price) {
+            if (price < 0 || price > highestPrice) {
+                throw new IllegalArgumentException("Price out of range [0, " + highestPrice + "]: " + price);
+            }
+            return shards[price / shardWidth];
+        }
+    }
+
+    /**
+     * A contiguous slice of the price domain with its own lock. Its fields are only accessed while holding its lock
+     */
+    private static final class Shard {
+        private final int firstPrice;
+        private final int[] priceToCount;
+        private int total;
+        private final ReentrantReadWriteLock reentrantReadWriteLock = new ReentrantReadWriteLock();
+        private final Lock readLock = reentrantReadWriteLock.readLock();
+        private final Lock writeLock = reentrantReadWriteLock.writeLock();
+
+        private Shard(int firstPrice, int width) {
+            this.firstPrice = firstPrice;
+            this.priceToCount = new int[width];
+        }
+
+        /**
+         * Number of items of this shard whose price is within [from, to]. The caller must hold the read lock
+         */
+        private int rangeSum(int from, int to) {
+            int lastPrice = firstPrice + priceToCount.length - 1;
+            if (from <= firstPrice && to >= lastPrice) {
+                return total;
+            }
+
+            int sum = 0;
+            for (int price = Math.max(from, firstPrice); price <= Math.min(to, lastPrice); price++) {
+                sum += priceToCount[price - firstPrice];
+            }
+            return sum;
+        }
+    }
+}
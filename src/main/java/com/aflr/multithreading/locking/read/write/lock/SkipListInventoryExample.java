@@ -0,0 +1,167 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Same scenario as the ReentrantReadWriteLockExample, but without any inventory-wide lock, so it can take several writer threads instead of one.
+ The TreeMap is replaced by a ConcurrentSkipListMap (a sorted map that supports concurrent updates and iteration) and every count is an AtomicLong:
+ - addItem finds (or creates) the counter of its price and increments it with a compare-and-set loop, which rejects a count that would overflow
+   an int like the other examples do. No lock at all: adds to different prices touch different counters
+ - removeItem must not take the count below zero, so it decrements with a compare-and-set loop that gives up when the count is zero. Writers of
+   the same price retry on each other's CAS instead of blocking, and other prices are never affected. No monitor is held, so writers running on
+   virtual threads are never pinned to their carrier (see VirtualThreadPinningCheck)
+ - a range query iterates the subMap of the range and sums the counters, without blocking writers and without being blocked by them
+ Counters are never removed from the map once created (a price whose count drops to zero keeps a zero counter): removing them could lose an add
+ that found the counter just before it was removed. The number of entries is bounded by the number of distinct prices.
+
+ Consistency of range sums under concurrent writes. There is no snapshot, so a query is only weakly consistent:
+ - when no write overlaps the query, the sum is exact
+ - each price contributes a count it had at some point during the query, never less than zero
+ - prices are read one after the other, so a query may see a write to one price and miss an earlier write to another one. applyDeltas is applied
+   price by price, so unlike the lock-based examples, a reader can see part of a batch
+ - the iteration never throws and never sees a price twice, even if new prices are inserted while it runs
+ Use one of the lock-based examples (or ShardedInventoryExample.getConsistentNumberOfItemsInPriceRange) when a query must match a single point in
+ time; use this one when writers must never wait and an approximate answer during writes is acceptable.
+ * */
+public class SkipListInventoryExample {
+    public static final int HIGHEST_PRICE = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(String.format("Reading took %d ms", StampedLockExample.measureReading(new InventoryDatabase())));
+
+        //Several writers adding and removing the same number of items at once: nothing is lost and nothing goes below zero
+        InventoryDatabase inventoryDatabase = new InventoryDatabase();
+        int numberOfWriterThreads = 4;
+        int writesPerThread = 100000;
+        List<Thread> writers = new ArrayList<>();
+        for (int writerIndex = 0; writerIndex < numberOfWriterThreads; writerIndex++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < writesPerThread; i++) {
+                    int price = random.nextInt(HIGHEST_PRICE);
+                    inventoryDatabase.addItem(price);
+                    inventoryDatabase.removeItem(price);
+                    inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
+                }
+            });
+            writers.add(writer);
+        }
+
+        long startWritingTime = System.currentTimeMillis();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        long endWritingTime = System.currentTimeMillis();
+
+        System.out.println(String.format("%d writers did %,d writes in %d ms, %,d items in the inventory (expected %,d)",
+                numberOfWriterThreads, numberOfWriterThreads * writesPerThread * 3, endWritingTime - startWritingTime,
+                inventoryDatabase.getNumberOfItemsInPriceRange(0, HIGHEST_PRICE), numberOfWriterThreads * writesPerThread));
+    }
+
+    public static class InventoryDatabase implements Inventory {
+        private final ConcurrentSkipListMap<Integer, AtomicLong> priceToCountMap = new ConcurrentSkipListMap<>();
+
+        /**
+         * Weakly consistent, see the class comment
+         */
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            if (lowerBound > upperBound) {
+                return 0;
+            }
+            long sum = 0;
+            for (AtomicLong numberOfItemsForPrice : priceToCountMap.subMap(lowerBound, true, upperBound, true).values()) {
+                sum += numberOfItemsForPrice.get();
+            }
+            return (int) Math.min(sum, Integer.MAX_VALUE);
+        }
+
+        public void addItem(int price) {
+            add(price, getOrCreate(price), 1);
+        }
+
+        public void removeItem(int price) {
+            AtomicLong numberOfItemsForPrice = priceToCountMap.get(price);
+            if (numberOfItemsForPrice != null) {
+                subtract(numberOfItemsForPrice, 1);
+            }
+        }
+
+        /**
+         * Applies the net delta of every price one price at a time: the batch is not atomic, see the class comment. The
+         * counts are checked for overflow before any price is changed, but a concurrent add can still make a later price
+         * overflow, and then the prices before it stay applied
+         */
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            priceDeltas.checkCounts(price -> {
+                AtomicLong numberOfItemsForPrice = priceToCountMap.get(price);
+                return numberOfItemsForPrice == null ? 0 : (int) numberOfItemsForPrice.get();
+            });
+            int changedPrices = 0;
+            for (int i = 0; i < priceDeltas.size; i++) {
+                int delta = priceDeltas.deltas[i];
+                if (delta > 0) {
+                    add(priceDeltas.prices[i], getOrCreate(priceDeltas.prices[i]), delta);
+                    changedPrices++;
+                } else {
+                    AtomicLong numberOfItemsForPrice = priceToCountMap.get(priceDeltas.prices[i]);
+                    if (numberOfItemsForPrice != null && subtract(numberOfItemsForPrice, -delta)) {
+                        changedPrices++;
+                    }
+                }
+            }
+            return changedPrices;
+        }
+
+        private AtomicLong getOrCreate(int price) {
+            AtomicLong numberOfItemsForPrice = priceToCountMap.get(price);
+            if (numberOfItemsForPrice == null) {
+                //Two threads may create a counter for the same price, but only one of them is put in the map and returned
+                numberOfItemsForPrice = priceToCountMap.computeIfAbsent(price, key -> new AtomicLong());
+            }
+            return numberOfItemsForPrice;
+        }
+
+        /**
+         * Adds amount with a compare-and-set loop, so that the count never goes above Integer.MAX_VALUE
+         *
+         * @throws IllegalArgumentException if the count would overflow an int
+         */
+        private static void add(int price, AtomicLong numberOfItemsForPrice, int amount) {
+            long count = numberOfItemsForPrice.get();
+            while (true) {
+                //Counts never exceed Integer.MAX_VALUE, so the cast is exact
+                int newCount = PriceDeltas.newCount(price, (int) count, amount);
+                long witness = numberOfItemsForPrice.compareAndExchange(count, newCount);
+                if (witness == count) {
+                    return;
+                }
+                count = witness;
+            }
+        }
+
+        /**
+         * Subtracts up to amount, without going below zero
+         *
+         * @return false if the count was already zero
+         */
+        private static boolean subtract(AtomicLong numberOfItemsForPrice, long amount) {
+            long count = numberOfItemsForPrice.get();
+            while (count > 0) {
+                long witness = numberOfItemsForPrice.compareAndExchange(count, count - Math.min(count, amount));
+                if (witness == count) {
+                    return true;
+                }
+                count = witness;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ Same scenario as the ReentrantReadWriteLockExample, but readers don't take any lock in the common case.
+ With a ReentrantReadWriteLock every reader still does a CAS on the shared read-hold count when it locks and when it unlocks, so the cache line holding
+ that count keeps bouncing between all the cores running readers. Here the InventoryDatabase uses StampedLock.tryOptimisticRead():
+ - the reader gets a stamp (a plain volatile read, no write to shared memory), computes the range sum and then validates the stamp
+ - if no write happened in between, the sum is returned as is
+ - only if a writer got in between, the reader computes the sum again under a real read lock
+ The counts are kept in a PriceCountTree (primitive arrays) because an optimistic reader may see the data in the middle of a write. With arrays it can
+ only see wrong numbers, which the validation discards, whereas walking a TreeMap in the middle of a rotation could throw.
+
+ The main method runs the same workload (1 writer, 7 readers doing 100000 queries each) against every InventoryDatabase so they can be compared.
+ * */
+public class StampedLockExample {
+    public static final int HIGHEST_PRICE = 1000;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        System.out.println(String.format("ReentrantLock: reading took %d ms",
+                measureReading(new ReentrantLockExample.InventoryDatabase())));
+        System.out.println(String.format("ReentrantReadWriteLock: reading took %d ms",
+                measureReading(new ReentrantReadWriteLockExample.InventoryDatabase())));
+        System.out.println(String.format("ReentrantReadWriteLock + Fenwick tree: reading took %d ms",
+                measureReading(new FenwickTreeExample.InventoryDatabase(HIGHEST_PRICE))));
+        System.out.println(String.format("StampedLock optimistic read: reading took %d ms",
+                measureReading(new InventoryDatabase(HIGHEST_PRICE))));
+        System.out.println(String.format("Copy-on-write snapshot: reading took %d ms",
+                measureReading(new CopyOnWriteSnapshotExample.InventoryDatabase(HIGHEST_PRICE))));
+        System.out.println(String.format("Sharded (%d shards): reading took %d ms", ShardedInventoryExample.NUMBER_OF_SHARDS,
+                measureReading(new ShardedInventoryExample.InventoryDatabase(HIGHEST_PRICE, ShardedInventoryExample.NUMBER_OF_SHARDS))));
+        try (MappedInventoryExample.InventoryDatabase mappedInventoryDatabase =
+                     MappedInventoryExample.InventoryDatabase.temporary(HIGHEST_PRICE)) {
+            System.out.println(String.format("Memory-mapped file: reading took %d ms",
+                    measureReading(mappedInventoryDatabase)));
+        }
+        System.out.println(String.format("ConcurrentSkipListMap + AtomicLong: reading took %d ms",
+                measureReading(new SkipListInventoryExample.InventoryDatabase())));
+    }
+
+    /**
+     * Populates the inventory, starts a writer that adds & removes an item every 10 ms and measures how long 7 readers
+     * take to do 100000 range queries each
+     */
+    public static long measureReading(Inventory inventoryDatabase) throws InterruptedException {
+        Random random = new Random();
+        int[] initialPrices = new int[100000];
+        for (int i = 0; i < initialPrices.length; i++) {
+            initialPrices[i] = random.nextInt(HIGHEST_PRICE);
+        }
+        inventoryDatabase.addItems(initialPrices);
+
+        Thread writer = new Thread(() -> {
+            int[] prices = new int[2];
+            int[] deltas = {1, -1};
+            while (!Thread.currentThread().isInterrupted()) {
+                prices[0] = random.nextInt(HIGHEST_PRICE);
+                prices[1] = random.nextInt(HIGHEST_PRICE);
+                inventoryDatabase.applyDeltas(prices, deltas);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        writer.setDaemon(true);
+        writer.start();
+
+        int numberOfReaderThreads = 7;
+        List<Thread> readers = new ArrayList<>();
+
+        for (int readerIndex = 0; readerIndex < numberOfReaderThreads; readerIndex++) {
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    int upperBoundPrice = random.nextInt(HIGHEST_PRICE);
+                    int lowerBoundPrice = upperBoundPrice > 0 ? random.nextInt(upperBoundPrice) : 0;
+                    inventoryDatabase.getNumberOfItemsInPriceRange(lowerBoundPrice, upperBoundPrice);
+                }
+            });
+
+            reader.setDaemon(true);
+            readers.add(reader);
+        }
+
+        long startReadingTime = System.currentTimeMillis();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        long endReadingTime = System.currentTimeMillis();
+
+        writer.interrupt();
+        writer.join();
+
+        return endReadingTime - startReadingTime;
+    }
+
+    public static class InventoryDatabase implements Inventory {
+        private final PriceCountTree priceCountTree;
+        private final StampedLock stampedLock = new StampedLock();
+
+        /**
+         * @param highestPrice the highest price (inclusive) this inventory can hold. Prices go from 0 to highestPrice
+         */
+        public InventoryDatabase(int highestPrice) {
+            priceCountTree = new PriceCountTree(highestPrice);
+        }
+
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            long stamp = stampedLock.tryOptimisticRead();
+            if (stamp != 0) {
+                int sum = priceCountTree.rangeSum(lowerBound, upperBound);
+                if (stampedLock.validate(stamp)) {
+                    return sum;
+                }
+            }
+
+            //A writer got in between (or was holding the lock): fall back to a real read lock
+            stamp = stampedLock.readLock();
+            try {
+                return priceCountTree.rangeSum(lowerBound, upperBound);
+            } finally {
+                stampedLock.unlockRead(stamp);
+            }
+        }
+
+        public void addItem(int price) {
+            priceCountTree.checkPrice(price);
+            long stamp = stampedLock.writeLock();
+            try {
+                priceCountTree.add(price);
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+
+        public void removeItem(int price) {
+            priceCountTree.checkPrice(price);
+            long stamp = stampedLock.writeLock();
+            try {
+                priceCountTree.remove(price);
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            priceCountTree.checkPrices(priceDeltas);
+            long stamp = stampedLock.writeLock();
+            try {
+                return priceCountTree.apply(priceDeltas);
+            } finally {
+                stampedLock.unlockWrite(stamp);
+            }
+        }
+    }
+}
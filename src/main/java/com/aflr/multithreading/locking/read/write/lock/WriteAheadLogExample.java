@@ -0,0 +1,522 @@
+package com.aflr.multithreading.locking.read.write.lock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ Makes the inventory survive a crash without paying an fsync for every addItem/removeItem (group commit).
+ A DurableInventoryDatabase wraps any InventoryDatabase with a write-ahead log:
+ - a write waits until the in-memory ring buffer has room for all its (price, delta) records, then applies them to the wrapped InventoryDatabase and
+   appends them to the ring without releasing the lock of the ring in between. So the log has exactly the order in which the writes were applied, a
+   write is either applied and logged or neither, and the flusher never splits a write across two batches of the file
+ - a dedicated flusher thread drains everything the ring has at once, writes it as a single checksummed batch to a FileChannel and forces it to
+   disk. One force makes durable every write that reached the ring since the previous one, no matter how many writers there are
+ - a SYNC write returns only once its records are on disk. An ASYNC write returns right away and is forced at most forceIntervalMillis later
+ - on startup the log is replayed into the wrapped InventoryDatabase. A batch that was only partially written before a crash fails its checksum and is
+   dropped, together with everything after it
+ Like the producer/consumer of the ConditionVariableExample, the ring applies backpressure: writers wait while it is full.
+ The flusher keeps statistics (mutations and batches written, number of forces, force latency) to see how much the group commit saves.
+ The log is never compacted: replaying it takes longer the more writes it has.
+ * */
+public class WriteAheadLogExample {
+    public static final int HIGHEST_PRICE = 1000;
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Path file = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("java.io.tmpdir"), "inventory.wal");
+
+        long startOpeningTime = System.currentTimeMillis();
+        try (DurableInventoryDatabase inventoryDatabase = new DurableInventoryDatabase(
+                new FenwickTreeExample.InventoryDatabase(HIGHEST_PRICE), file, 4096, 10, Durability.SYNC)) {
+            System.out.println(String.format("Replayed %,d items from %s in %d ms",
+                    inventoryDatabase.getNumberOfItemsInPriceRange(0, HIGHEST_PRICE), file,
+                    System.currentTimeMillis() - startOpeningTime));
+
+            int numberOfWriterThreads = 8;
+            List<Thread> writers = new ArrayList<>();
+            Random random = new Random();
+            for (int writerIndex = 0; writerIndex < numberOfWriterThreads; writerIndex++) {
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        inventoryDatabase.addItem(random.nextInt(HIGHEST_PRICE));
+                    }
+                }));
+            }
+
+            long startWritingTime = System.currentTimeMillis();
+            for (Thread writer : writers) {
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            long writingTime = System.currentTimeMillis() - startWritingTime;
+
+            WriteAheadLog log = inventoryDatabase.getLog();
+            System.out.println(String.format("%,d durable writes took %d ms", numberOfWriterThreads * 1000, writingTime));
+            System.out.println(String.format("%,d mutations in %,d batches, %,d forces (avg %,d us, max %,d us), %,d mutations/s",
+                    log.getFlushedMutations(), log.getFlushedBatches(), log.getForces(), log.getAverageForceMicros(),
+                    log.getMaxForceMicros(), log.getMutationsPerSecond()));
+        }
+    }
+
+    public enum Durability {
+        /**
+         * The write returns once it is on disk
+         */
+        SYNC,
+        /**
+         * The write returns once it is in the ring buffer. It is on disk at most forceIntervalMillis later
+         */
+        ASYNC
+    }
+
+    /**
+     * InventoryDatabase whose writes are logged before being applied. Reads go straight to the wrapped one.
+     */
+    public static class DurableInventoryDatabase implements Inventory, Closeable {
+        private final Inventory delegate;
+        private final WriteAheadLog log;
+        private final Durability defaultDurability;
+
+        /**
+         * Replays the log found in file (if any) into delegate and starts the flusher
+         *
+         * @param delegate            an empty InventoryDatabase that holds the data
+         * @param ringCapacity        maximum number of mutations waiting to be written, and of prices in a single write
+         * @param forceIntervalMillis maximum time an ASYNC write waits to be forced
+         * @param defaultDurability   durability of the methods that don't take one
+         */
+        public DurableInventoryDatabase(Inventory delegate, Path file, int ringCapacity, long forceIntervalMillis,
+                                        Durability defaultDurability) throws IOException {
+            this.delegate = delegate;
+            this.defaultDurability = defaultDurability;
+            this.log = new WriteAheadLog(file, ringCapacity, forceIntervalMillis, delegate);
+        }
+
+        public int getNumberOfItemsInPriceRange(int lowerBound, int upperBound) {
+            return delegate.getNumberOfItemsInPriceRange(lowerBound, upperBound);
+        }
+
+        public void addItem(int price) {
+            addItem(price, defaultDurability);
+        }
+
+        public void addItem(int price, Durability durability) {
+            applyDeltas(new int[]{price}, new int[]{1}, durability);
+        }
+
+        public void removeItem(int price) {
+            removeItem(price, defaultDurability);
+        }
+
+        public void removeItem(int price, Durability durability) {
+            applyDeltas(new int[]{price}, new int[]{-1}, durability);
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas) {
+            return applyDeltas(prices, deltas, defaultDurability);
+        }
+
+        public int applyDeltas(int[] prices, int[] deltas, Durability durability) {
+            PriceDeltas priceDeltas = PriceDeltas.merge(prices, deltas);
+            if (priceDeltas.isEmpty()) {
+                return 0;
+            }
+            return log.appendAndApply(priceDeltas, durability);
+        }
+
+        public WriteAheadLog getLog() {
+            return log;
+        }
+
+        /**
+         * Writes and forces everything still in the ring, then stops the flusher
+         */
+        @Override
+        public void close() throws IOException {
+            log.close();
+        }
+    }
+
+    /**
+     * Ring buffer of pending mutations plus the flusher thread that writes them to the log file. Each batch in the file
+     * is: number of mutations (int), CRC32C of the mutations (int), then a (price, delta) pair of ints per mutation.
+     */
+    public static class WriteAheadLog implements Closeable {
+        private static final int BATCH_HEADER_BYTES = 8;
+        private static final int MUTATION_BYTES = 8;
+
+        private final FileChannel channel;
+        private final Inventory target;
+        private final long forceIntervalNanos;
+        private final Thread flusher;
+
+        //Serializes the writers, so the order of the log is the order in which the mutations are applied to the target
+        private final Lock writeLock = new ReentrantLock();
+        //Guards the ring and the sequence numbers
+        private final Lock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Condition durable = lock.newCondition();
+        //mutations packed as (price << 32 | delta)
+        private final long[] ring;
+        //sequence numbers count the mutations appended since the log was opened
+        private long appendedSequence;
+        private long drainedSequence;
+        private long durableSequence;
+        private int syncWaiters;
+        private boolean closed;
+        private IOException failure;
+
+        //statistics, only written by the flusher
+        private volatile long flushedMutations;
+        private volatile long flushedBatches;
+        private volatile long forces;
+        private volatile long totalForceNanos;
+        private volatile long maxForceNanos;
+        private final long startNanos = System.nanoTime();
+
+        WriteAheadLog(Path file, int ringCapacity, long forceIntervalMillis, Inventory target) throws IOException {
+            if (ringCapacity < 1) {
+                throw new IllegalArgumentException("ringCapacity must be positive: " + ringCapacity);
+            }
+            this.ring = new long[ringCapacity];
+            this.target = target;
+            this.forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(forceIntervalMillis);
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                replay();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+
+            flusher = new Thread(this::flushLoop, "wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        /**
+         * Waits until the ring has room for all the mutations, then applies them to the target and appends them to the
+         * ring while holding its lock: the flusher drains the ring under the same lock, so it writes the whole write in
+         * one batch, and a close or a failure can't come between applying and logging. With SYNC durability it also
+         * waits until the flusher has forced them to disk. Applying before appending means that a mutation the target
+         * rejects (e.g. a price out of range) never reaches the log
+         *
+         * @return number of prices whose count changed in the target
+         * @throws IllegalArgumentException if there are more mutations than the ring can hold
+         */
+        int appendAndApply(PriceDeltas priceDeltas, Durability durability) {
+            if (priceDeltas.size > ring.length) {
+                throw new IllegalArgumentException("A write can't have more mutations than the ring capacity ("
+                        + ring.length + "): " + priceDeltas.size);
+            }
+            long sequence;
+            int changedPrices;
+            writeLock.lock();
+            try {
+                lock.lock();
+                try {
+                    checkOpen();
+                    while (ring.length - (appendedSequence - drainedSequence) < priceDeltas.size) {
+                        notEmpty.signal();
+                        notFull.awaitUninterruptibly();
+                        checkOpen();
+                    }
+                    changedPrices = target.applyDeltas(priceDeltas.trimmedPrices(), priceDeltas.trimmedDeltas());
+
+                    for (int i = 0; i < priceDeltas.size; i++) {
+                        ring[(int) (appendedSequence % ring.length)] =
+                                ((long) priceDeltas.prices[i] << 32) | (priceDeltas.deltas[i] & 0xFFFFFFFFL);
+                        appendedSequence++;
+                    }
+                    sequence = appendedSequence;
+                    notEmpty.signal();
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+
+            if (durability == Durability.SYNC) {
+                awaitDurable(sequence);
+            }
+            return changedPrices;
+        }
+
+        /**
+         * Writes and forces everything still in the ring, then stops the flusher and closes the file
+         */
+        @Override
+        public void close() throws IOException {
+            lock.lock();
+            try {
+                closed = true;
+                notEmpty.signal();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                channel.close();
+            }
+
+            lock.lock();
+            try {
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public long getFlushedMutations() {
+            return flushedMutations;
+        }
+
+        public long getFlushedBatches() {
+            return flushedBatches;
+        }
+
+        public long getForces() {
+            return forces;
+        }
+
+        public long getAverageForceMicros() {
+            long numberOfForces = forces;
+            return numberOfForces == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalForceNanos / numberOfForces);
+        }
+
+        public long getMaxForceMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxForceNanos);
+        }
+
+        /**
+         * Mutations written to the log per second since it was opened
+         */
+        public long getMutationsPerSecond() {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            return elapsedNanos == 0 ? 0 : flushedMutations * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        private void awaitDurable(long sequence) {
+            lock.lock();
+            try {
+                syncWaiters++;
+                //wake the flusher up: it forces right away when somebody is waiting
+                notEmpty.signal();
+                while (durableSequence < sequence) {
+                    if (failure != null) {
+                        throw new UncheckedIOException(failure);
+                    }
+                    durable.awaitUninterruptibly();
+                }
+            } finally {
+                syncWaiters--;
+                lock.unlock();
+            }
+        }
+
+        /**
+         * The caller must hold lock
+         */
+        private void checkOpen() {
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+            if (closed) {
+                throw new IllegalStateException("The write-ahead log is closed");
+            }
+        }
+
+        private void flushLoop() {
+            ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_HEADER_BYTES + ring.length * MUTATION_BYTES);
+            CRC32C crc = new CRC32C();
+            long nextForceNanos = System.nanoTime() + forceIntervalNanos;
+
+            while (true) {
+                long drainedUpTo;
+                boolean forceNow;
+                int numberOfMutations;
+
+                lock.lock();
+                try {
+                    while (appendedSequence == drainedSequence && !closed) {
+                        boolean unforcedWrites = drainedSequence > durableSequence;
+                        long now = System.nanoTime();
+                        if (unforcedWrites && (syncWaiters > 0 || now >= nextForceNanos)) {
+                            break;
+                        }
+                        if (unforcedWrites) {
+                            notEmpty.awaitNanos(nextForceNanos - now);
+                        } else {
+                            notEmpty.await();
+                        }
+                    }
+
+                    numberOfMutations = (int) (appendedSequence - drainedSequence);
+                    if (closed && numberOfMutations == 0 && durableSequence == drainedSequence) {
+                        return;
+                    }
+
+                    batch.clear();
+                    batch.position(BATCH_HEADER_BYTES);
+                    for (long sequence = drainedSequence; sequence < appendedSequence; sequence++) {
+                        long mutation = ring[(int) (sequence % ring.length)];
+                        batch.putInt((int) (mutation >> 32));
+                        batch.putInt((int) mutation);
+                    }
+                    drainedSequence = appendedSequence;
+                    drainedUpTo = drainedSequence;
+                    notFull.signalAll();
+                    forceNow = closed || syncWaiters > 0 || System.nanoTime() >= nextForceNanos;
+                } catch (InterruptedException e) {
+                    fail(new IOException("The flusher was interrupted", e));
+                    return;
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    if (numberOfMutations > 0) {
+                        batch.flip();
+                        crc.reset();
+                        crc.update(batch.duplicate().position(BATCH_HEADER_BYTES));
+                        batch.putInt(0, numberOfMutations);
+                        batch.putInt(4, (int) crc.getValue());
+                        while (batch.hasRemaining()) {
+                            channel.write(batch);
+                        }
+                        flushedMutations += numberOfMutations;
+                        flushedBatches++;
+                    }
+
+                    if (forceNow) {
+                        long startForceNanos = System.nanoTime();
+                        channel.force(false);
+                        long forceNanos = System.nanoTime() - startForceNanos;
+                        forces++;
+                        totalForceNanos += forceNanos;
+                        maxForceNanos = Math.max(maxForceNanos, forceNanos);
+                        nextForceNanos = System.nanoTime() + forceIntervalNanos;
+
+                        lock.lock();
+                        try {
+                            durableSequence = drainedUpTo;
+                            durable.signalAll();
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+            }
+        }
+
+        private void fail(IOException e) {
+            lock.lock();
+            try {
+                failure = e;
+                durable.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Applies every complete batch of the file to the target and cuts the file after the last one, so new batches
+         * are appended after valid data
+         */
+        private void replay() throws IOException {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(BATCH_HEADER_BYTES);
+            CRC32C crc = new CRC32C();
+
+            while (size - position >= BATCH_HEADER_BYTES) {
+                header.clear();
+                readFully(header, position);
+                int numberOfMutations = header.getInt(0);
+                int checksum = header.getInt(4);
+                if (numberOfMutations <= 0
+                        || numberOfMutations > (size - position - BATCH_HEADER_BYTES) / MUTATION_BYTES) {
+                    break;
+                }
+
+                ByteBuffer mutations = ByteBuffer.allocate(Math.toIntExact((long) numberOfMutations * MUTATION_BYTES));
+                readFully(mutations, position + BATCH_HEADER_BYTES);
+                crc.reset();
+                crc.update(mutations.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                applyInOrder(mutations, numberOfMutations);
+                position += BATCH_HEADER_BYTES + (long) numberOfMutations * MUTATION_BYTES;
+            }
+
+            channel.truncate(position);
+            channel.position(position);
+        }
+
+        /**
+         * Applies the mutations of a batch in the order they were logged. Consecutive mutations on different prices are
+         * applied together; a repeated price starts a new group, since merging its deltas could change the result when a
+         * count reaches zero
+         */
+        private void applyInOrder(ByteBuffer mutations, int numberOfMutations) {
+            int[] prices = new int[numberOfMutations];
+            int[] deltas = new int[numberOfMutations];
+            Set<Integer> pricesInGroup = new HashSet<>();
+            int groupSize = 0;
+            for (int i = 0; i < numberOfMutations; i++) {
+                int price = mutations.getInt(i * MUTATION_BYTES);
+                int delta = mutations.getInt(i * MUTATION_BYTES + 4);
+                if (!pricesInGroup.add(price)) {
+                    target.applyDeltas(Arrays.copyOf(prices, groupSize), Arrays.copyOf(deltas, groupSize));
+                    pricesInGroup.clear();
+                    pricesInGroup.add(price);
+                    groupSize = 0;
+                }
+                prices[groupSize] = price;
+                deltas[groupSize] = delta;
+                groupSize++;
+            }
+            target.applyDeltas(Arrays.copyOf(prices, groupSize), Arrays.copyOf(deltas, groupSize));
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of the write-ahead log");
+                }
+            }
+        }
+    }
+}
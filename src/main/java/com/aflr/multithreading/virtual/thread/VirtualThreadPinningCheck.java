@@ -0,0 +1,155 @@
+package com.aflr.multithreading.virtual.thread;
+
+import com.aflr.multithreading.deadlock.DeadLockExample;
+import com.aflr.multithreading.inter.thread.backpressure.NotifyAndWaitExample;
+import com.aflr.multithreading.locking.CoarseGrained;
+import com.aflr.multithreading.locking.FineGrained;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A virtual thread runs on a carrier thread of a small pool (one per core). When it blocks, it normally unmounts and
+ * the carrier runs another virtual thread. On JDK 21, a virtual thread that blocks while holding a monitor (inside
+ * synchronized, or in Object.wait) can't unmount: it is pinned, and keeps its carrier busy while it sleeps or waits.
+ * With thousands of virtual threads, a few pinned ones are enough to starve all the others.
+ *
+ * This check runs every scenario on virtual threads while a JFR stream records the jdk.VirtualThreadPinned events,
+ * with no duration threshold (the default one only reports pins of 20 ms or more):
+ * - the synchronized classes are expected to pin (on JDK 21 to 23). They are reported, not failed, and show that the
+ *   detection works
+ * - their ReentrantLock variants must never pin: the check exits with status 1 if one of them does
+ *
+ * Run with -Djdk.tracePinnedThreads=full to also get the stack trace of the pinned threads printed by the JDK itself.
+ */
+public class VirtualThreadPinningCheck {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int TRAIN_TRIPS = 5;
+
+    public static void main(String[] args) throws InterruptedException {
+        NotifyAndWaitExample.SharedClass notifyAndWait = new NotifyAndWaitExample.SharedClass();
+        DeadLockExample.Intersection intersection = new DeadLockExample.Intersection();
+        CoarseGrained.SharedClass coarseGrained = new CoarseGrained.SharedClass();
+        FineGrained.SharedClass fineGrained = new FineGrained.SharedClass();
+        List<Scenario> synchronizedScenarios = List.of(
+                new Scenario("NotifyAndWaitExample.SharedClass", notifyAndWait::waitUntilComplete, notifyAndWait::complete),
+                //Both trains at the same time would deadlock: a single train takes the roads one after the other
+                new Scenario("DeadLockExample.Intersection", repeat(() -> {
+                    intersection.takeRoadA();
+                    intersection.takeRoadB();
+                })),
+                new Scenario("CoarseGrained.SharedClass", coarseGrained::getObjectFromDB,
+                        () -> coarseGrained.addTask(new Object())),
+                new Scenario("FineGrained.SharedClass", fineGrained::getObjectFromDB,
+                        () -> fineGrained.addTask(new Object())));
+
+        NotifyAndWaitExample.ReentrantLockSharedClass lockNotifyAndWait = new NotifyAndWaitExample.ReentrantLockSharedClass();
+        DeadLockExample.ReentrantLockIntersection lockIntersection = new DeadLockExample.ReentrantLockIntersection();
+        CoarseGrained.ReentrantLockSharedClass lockCoarseGrained = new CoarseGrained.ReentrantLockSharedClass();
+        FineGrained.ReentrantLockSharedClass lockFineGrained = new FineGrained.ReentrantLockSharedClass();
+        List<Scenario> lockScenarios = List.of(
+                new Scenario("NotifyAndWaitExample.ReentrantLockSharedClass", lockNotifyAndWait::waitUntilComplete,
+                        lockNotifyAndWait::complete),
+                new Scenario("DeadLockExample.ReentrantLockIntersection", repeat(lockIntersection::takeRoadA),
+                        repeat(lockIntersection::takeRoadB)),
+                new Scenario("CoarseGrained.ReentrantLockSharedClass", lockCoarseGrained::getObjectFromDB,
+                        () -> lockCoarseGrained.addTask(new Object())),
+                new Scenario("FineGrained.ReentrantLockSharedClass", lockFineGrained::getObjectFromDB,
+                        () -> lockFineGrained.addTask(new Object())));
+
+        List<String> report = new ArrayList<>();
+        for (Scenario scenario : synchronizedScenarios) {
+            report.add(String.format("  %-55s %3d pinning events (expected on JDK 21)", scenario.name,
+                    recordPinningEvents(scenario).size()));
+        }
+        List<String> failures = new ArrayList<>();
+        for (Scenario scenario : lockScenarios) {
+            List<String> pinnedAt = recordPinningEvents(scenario);
+            report.add(String.format("  %-55s %3d pinning events", scenario.name, pinnedAt.size()));
+            for (String frame : pinnedAt) {
+                failures.add(scenario.name + " pinned its carrier at " + frame);
+            }
+        }
+
+        System.out.println("Virtual thread pinning (" + PINNED_EVENT + "):");
+        report.forEach(System.out::println);
+        if (!failures.isEmpty()) {
+            failures.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("No ReentrantLock variant pinned its carrier thread");
+    }
+
+    /**
+     * Runs the scenario on virtual threads and returns the top frame of every pinning event recorded meanwhile
+     */
+    private static List<String> recordPinningEvents(Scenario scenario) throws InterruptedException {
+        List<String> pinnedAt = new ArrayList<>();
+        try (RecordingStream recording = new RecordingStream()) {
+            recording.enable(PINNED_EVENT).withThreshold(Duration.ZERO).withStackTrace();
+            recording.onEvent(PINNED_EVENT, event -> {
+                synchronized (pinnedAt) {
+                    pinnedAt.add(topFrame(event));
+                }
+            });
+            recording.startAsync();
+            scenario.run();
+            //Flushes the events of the scenario to onEvent before returning
+            recording.stop();
+        }
+        return pinnedAt;
+    }
+
+    private static String topFrame(RecordedEvent event) {
+        if (event.getStackTrace() == null) {
+            return "unknown frame";
+        }
+        //Skip the frames of the JDK (Thread.sleep, Object.wait...) to point at the code holding the monitor
+        for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith("com.aflr.")) {
+                return type + "." + frame.getMethod().getName() + " line " + frame.getLineNumber();
+            }
+        }
+        return "unknown frame";
+    }
+
+    private static Task repeat(Task task) {
+        return () -> {
+            for (int i = 0; i < TRAIN_TRIPS; i++) {
+                task.run();
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Tasks started together, each on its own virtual thread
+     */
+    private record Scenario(String name, Task... tasks) {
+
+        void run() throws InterruptedException {
+            List<Thread> threads = new ArrayList<>();
+            for (Task task : tasks) {
+                threads.add(Thread.ofVirtual().start(() -> {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+}